@@ -0,0 +1,43 @@
+package net.swined.revolut;
+
+import net.swined.revolut.request.NewOperationRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"1", "2", "16"})
+    public int legs;
+
+    private final Codec codec = new Codec();
+    private byte[] operation;
+
+    @Setup
+    public void setUp() {
+        var json = new StringBuilder("{");
+        for (int i = 0; i < legs; i++) {
+            json.append(i == 0 ? "" : ",").append(String.format("\"account-%s\":\"USD %s.25\"", i, i == 0 ? 1 - legs : 1));
+        }
+        operation = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public NewOperationRequest readOperation() throws IOException {
+        return codec.readOperation(new ByteArrayInputStream(operation));
+    }
+
+}
@@ -0,0 +1,104 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.http.NioTransport;
+import net.swined.revolut.storage.Amount;
+import net.swined.revolut.storage.Operations;
+import net.swined.revolut.storage.Storage;
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.LogManager;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ProtocolBenchmark {
+
+    private static final int ACCOUNTS = 1_000;
+
+    @Param({"http", "binary"})
+    public String protocol;
+
+    private final AtomicLong ids = new AtomicLong();
+    private Storage storage;
+    private Listener http;
+    private Listener binary;
+    private HttpClient httpClient;
+    private BinaryClient binaryClient;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        LogManager.getLogManager().reset();
+        storage = new Storage.Builder().operations(new Operations(Duration.ofMinutes(1), 4, 1_000_000)).build();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            storage.create("a" + i, CurrencyUnit.USD);
+        }
+        var server = new Server.Builder(storage).build();
+        http = server.run(new NioTransport(2), 0, 100, ForkJoinPool.commonPool());
+        binary = server.runBinary(0, 100, ForkJoinPool.commonPool());
+        base = "http://localhost:" + http.getAddress().getPort();
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        binaryClient = new BinaryClient(new InetSocketAddress("localhost", binary.getAddress().getPort()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        binaryClient.close();
+        binary.stop();
+        http.stop();
+        storage.close();
+    }
+
+    private static String account() {
+        return "a" + ThreadLocalRandom.current().nextInt(ACCOUNTS);
+    }
+
+    @Benchmark
+    public int getBalance() throws IOException, InterruptedException {
+        var account = account();
+        if (protocol.equals("binary")) {
+            return binaryClient.getBalance(account).join().getCode();
+        }
+        var request = HttpRequest.newBuilder(URI.create(base + "/account/" + account)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+
+    @Benchmark
+    public int deposit() throws IOException, InterruptedException {
+        var id = "op" + ids.incrementAndGet();
+        var account = account();
+        if (protocol.equals("binary")) {
+            return binaryClient.operation(id, Map.of(account, new Amount(CurrencyUnit.USD, 1))).join().getCode();
+        }
+        var request = HttpRequest.newBuilder(URI.create(base + "/operation/" + id))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"" + account + "\":\"USD 0.01\"}"))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+
+}
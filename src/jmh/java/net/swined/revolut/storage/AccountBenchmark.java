@@ -0,0 +1,115 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AccountBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int SAMPLES = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+
+        @Param({"0.0", "0.99", "1.5"})
+        public double skew;
+
+        final AtomicLong sequence = new AtomicLong();
+        final Engine engine = new LockingEngine();
+        final Account[] accounts = new Account[ACCOUNTS];
+        final Account[] reads = new Account[SAMPLES];
+        final List<Map<Account, Amount>> transfers = new ArrayList<>(SAMPLES);
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new Account("a" + i, CurrencyUnit.USD, Long.MAX_VALUE / 2, 0);
+            }
+            var weights = new double[ACCOUNTS];
+            var total = 0.0;
+            for (int i = 0; i < ACCOUNTS; i++) {
+                total += 1 / Math.pow(i + 1, skew);
+                weights[i] = total;
+            }
+            var random = new Random(42);
+            for (int i = 0; i < SAMPLES; i++) {
+                var from = zipf(weights, random);
+                var to = zipf(weights, random);
+                while (to == from) {
+                    to = zipf(weights, random);
+                }
+                transfers.add(Map.of(
+                        accounts[from], new Amount(CurrencyUnit.USD, -1),
+                        accounts[to], new Amount(CurrencyUnit.USD, 1)
+                ));
+                reads[i] = accounts[zipf(weights, random)];
+            }
+        }
+
+        private static int zipf(double[] weights, Random random) {
+            var index = Arrays.binarySearch(weights, random.nextDouble() * weights[weights.length - 1]);
+            return index < 0 ? -index - 1 : index;
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next = new Random().nextInt(SAMPLES);
+
+        int next() {
+            return next++ & (SAMPLES - 1);
+        }
+
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long update(Accounts state, Cursor cursor) {
+        return state.engine.update("op", 0, state.transfers.get(cursor.next()), state.sequence::incrementAndGet);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public long write(Accounts state, Cursor cursor) {
+        return state.engine.update("op", 0, state.transfers.get(cursor.next()), state.sequence::incrementAndGet);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public long getBalance(Accounts state, Cursor cursor) {
+        return state.reads[cursor.next()].getBalance();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Account.State getState(Accounts state, Cursor cursor) {
+        return state.reads[cursor.next()].getState();
+    }
+
+}
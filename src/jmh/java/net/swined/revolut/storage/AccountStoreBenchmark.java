@@ -0,0 +1,111 @@
+package net.swined.revolut.storage;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-XX:MaxDirectMemorySize=4g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(4)
+public class AccountStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+
+        @Param({"heap", "compact"})
+        public String store;
+
+        @Param({"100000"})
+        public int accounts;
+
+        final AtomicLong ids = new AtomicLong();
+        final AtomicLong pauses = new AtomicLong();
+        final AtomicLong paused = new AtomicLong();
+        final AtomicLong longest = new AtomicLong();
+        Storage storage;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            AccountStore accountStore = store.equals("compact") ? new CompactAccountStore(accounts) : new HeapAccountStore();
+            for (int i = 0; i < accounts; i++) {
+                accountStore.put(new Account("a" + i, CurrencyUnit.USD, 1_000_000_000L, 0));
+            }
+            storage = new Storage.Builder().operations(new Operations(Duration.ofMinutes(1), 4, 100_000)).accounts(accountStore).build();
+            System.gc();
+            var direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> pool.getName().equals("direct"))
+                    .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                    .sum();
+            System.out.printf(
+                    "%n%s store with %s accounts: heap used %s MB, direct memory %s MB%n",
+                    store,
+                    accounts,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20,
+                    direct >> 20
+            );
+            for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                    if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                        var duration = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo().getDuration();
+                        pauses.incrementAndGet();
+                        paused.addAndGet(duration);
+                        longest.accumulateAndGet(duration, Math::max);
+                    }
+                }, null, null);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.out.printf(
+                    "%n%s store with %s accounts: %s gc pauses, %s ms total, %s ms longest%n",
+                    store,
+                    accounts,
+                    pauses.get(),
+                    paused.get(),
+                    longest.get()
+            );
+            storage.close();
+        }
+
+        String random() {
+            return "a" + ThreadLocalRandom.current().nextInt(accounts);
+        }
+
+    }
+
+    @Benchmark
+    public long get(Accounts state) {
+        return state.storage.get(state.random()).getBalance();
+    }
+
+    @Benchmark
+    public void update(Accounts state) {
+        var from = state.random();
+        var to = state.random();
+        if (!from.equals(to)) {
+            state.storage.update("op" + state.ids.incrementAndGet(), Diff.of(Map.of(from, "USD -0.01", to, "USD 0.01")));
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HotAccountBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fees {
+
+        @Param({"0", "16"})
+        public int stripes;
+
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicInteger payers = new AtomicInteger();
+        final Engine engine = new LockingEngine();
+        Account fee;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            fee = new Account("fee", CurrencyUnit.USD, 0, 0, stripes);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Payer {
+
+        Map<Account, Amount> transfer;
+
+        @Setup(Level.Iteration)
+        public void setUp(Fees fees) {
+            var id = fees.payers.incrementAndGet();
+            transfer = Map.of(
+                    new Account("payer" + id, CurrencyUnit.USD, Long.MAX_VALUE / 2, 0), new Amount(CurrencyUnit.USD, -101),
+                    new Account("merchant" + id, CurrencyUnit.USD), new Amount(CurrencyUnit.USD, 100),
+                    fees.fee, new Amount(CurrencyUnit.USD, 1)
+            );
+        }
+
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long pay(Fees fees, Payer payer) {
+        return fees.engine.update("pay", 0, payer.transfer, fees.sequence::incrementAndGet);
+    }
+
+}
@@ -0,0 +1,108 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class StorageBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+
+        @Param({"locking", "sharded"})
+        public String engine;
+
+        @Param({"1", "2", "16"})
+        public int legs;
+
+        final AtomicLong ids = new AtomicLong();
+        final Diff[] diffs = new Diff[1024];
+        Storage storage;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            storage = new Storage.Builder()
+                    .operations(new Operations(Duration.ofMinutes(1), 4, 100_000))
+                    .engine(engine.equals("sharded") ? new ShardedEngine(Runtime.getRuntime().availableProcessors()) : new LockingEngine())
+                    .build();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                storage.create("a" + i, CurrencyUnit.USD);
+                storage.update("init" + i, Diff.of(Map.of("a" + i, "USD 1000000000")));
+            }
+            var random = new Random(42);
+            for (int i = 0; i < diffs.length; i++) {
+                var diff = new LinkedHashMap<String, String>();
+                while (diff.size() < legs) {
+                    diff.put("a" + random.nextInt(ACCOUNTS), "USD 0.01");
+                }
+                if (legs > 1) {
+                    diff.put(diff.keySet().iterator().next(), new Amount(CurrencyUnit.USD, 1 - legs).toString());
+                }
+                diffs[i] = Diff.of(diff);
+            }
+            storage.update("replay", diffs[0]);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            storage.close();
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Empty {
+
+        final AtomicLong ids = new AtomicLong();
+        Storage storage;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            storage = new Storage.Builder().build();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            storage.close();
+        }
+
+    }
+
+    @Benchmark
+    public void create(Empty state) {
+        state.storage.create("a" + state.ids.incrementAndGet(), CurrencyUnit.USD);
+    }
+
+    @Benchmark
+    public void update(Accounts state) {
+        var id = state.ids.incrementAndGet();
+        state.storage.update("op" + id, state.diffs[(int) id & (state.diffs.length - 1)]);
+    }
+
+    @Benchmark
+    public void replay(Accounts state) {
+        state.storage.update("replay", state.diffs[0]);
+    }
+
+}
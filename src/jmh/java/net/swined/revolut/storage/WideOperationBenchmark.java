@@ -0,0 +1,73 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WideOperationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Payroll {
+
+        @Param({"locking", "sharded"})
+        public String engine;
+
+        @Param({"1000", "10000"})
+        public int legs;
+
+        final AtomicLong ids = new AtomicLong();
+        Storage storage;
+        Diff payroll;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            storage = new Storage.Builder()
+                    .operations(new Operations(Duration.ofMinutes(1), 4, 100_000))
+                    .engine(engine.equals("sharded") ? new ShardedEngine(Runtime.getRuntime().availableProcessors()) : new LockingEngine())
+                    .build();
+            storage.create("payer", CurrencyUnit.USD);
+            storage.update("fund", Diff.of(Map.of("payer", "USD 1000000000")));
+            var diff = new HashMap<String, String>();
+            for (int i = 1; i < legs; i++) {
+                storage.create("p" + i, CurrencyUnit.USD);
+                diff.put("p" + i, "USD 0.01");
+            }
+            diff.put("payer", new Amount(CurrencyUnit.USD, 1 - legs).toString());
+            payroll = Diff.of(diff);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            storage.close();
+        }
+
+    }
+
+    @Benchmark
+    public void payroll(Payroll state) {
+        state.storage.update("payroll" + state.ids.incrementAndGet(), state.payroll);
+    }
+
+}
@@ -0,0 +1,133 @@
+package net.swined.revolut;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class AccessLog {
+
+    private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+    private final Event[] ring;
+    private final int mask;
+    private final int sample;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread consumer;
+    private volatile long head;
+    private volatile boolean idle;
+
+    public AccessLog(int capacity, int sample) {
+        var size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Event[size];
+        for (int i = 0; i < size; i++) {
+            this.ring[i] = new Event();
+        }
+        this.mask = size - 1;
+        this.sample = Math.max(1, sample);
+        this.consumer = new Thread(this::run, "access-log");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    static AccessLog getDefault() {
+        return Default.INSTANCE;
+    }
+
+    public void record(String method, String path, String id, int status, long start) {
+        if (!logger.isLoggable(Level.INFO)) {
+            return;
+        }
+        if (sample > 1 && status < 400 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+            return;
+        }
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        var event = ring[(int) claimed & mask];
+        event.time = System.currentTimeMillis();
+        event.latency = System.nanoTime() - start;
+        event.method = method;
+        event.path = path;
+        event.id = id;
+        event.status = status;
+        event.published = claimed + 1;
+        if (idle) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        var message = new StringBuilder();
+        while (true) {
+            var position = head;
+            var event = ring[(int) position & mask];
+            if (event.published != position + 1) {
+                var lost = dropped.sumThenReset();
+                if (lost > 0) {
+                    logger.warning(String.format("access log dropped %s events", lost));
+                }
+                idle = true;
+                if (event.published != position + 1) {
+                    LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+                }
+                idle = false;
+                continue;
+            }
+            message.setLength(0);
+            message
+                    .append("method=").append(event.method)
+                    .append(" path=").append(event.path)
+                    .append(" status=").append(event.status)
+                    .append(" latency_us=").append(event.latency / 1000);
+            if (event.id != null) {
+                message.append(" id=").append(event.id);
+            }
+            var record = new LogRecord(Level.INFO, message.toString());
+            record.setInstant(Instant.ofEpochMilli(event.time));
+            record.setLoggerName(logger.getName());
+            event.method = null;
+            event.path = null;
+            event.id = null;
+            head = position + 1;
+            try {
+                logger.log(record);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class Event {
+
+        private volatile long published;
+        private long time;
+        private long latency;
+        private String method;
+        private String path;
+        private String id;
+        private int status;
+
+    }
+
+    private static class Default {
+
+        private static final AccessLog INSTANCE = new AccessLog(8192, 1);
+
+    }
+
+}
@@ -0,0 +1,86 @@
+package net.swined.revolut;
+
+import net.swined.revolut.metrics.Exposition;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+
+public class Admission {
+
+    static final int RETRY_AFTER_SECONDS = 1;
+    private static final ThreadLocal<long[]> ARRIVAL = ThreadLocal.withInitial(() -> new long[1]);
+    private final Map<String, Limiter> limiters = new ConcurrentSkipListMap<>();
+    private final Limiter.Group writes = new Limiter.Group();
+    private final int maxReads;
+    private final int maxWrites;
+    private final long target;
+
+    public Admission() {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE, Duration.ZERO);
+    }
+
+    public Admission(int maxReads, int maxWrites, Duration target) {
+        this.maxReads = maxReads;
+        this.maxWrites = maxWrites;
+        this.target = target.toNanos();
+    }
+
+    static long arrival() {
+        var time = ARRIVAL.get()[0];
+        return time == 0 ? System.nanoTime() : time;
+    }
+
+    Executor timed(Executor executor) {
+        if (target <= 0) {
+            return executor;
+        }
+        return command -> {
+            var queued = System.nanoTime();
+            executor.execute(() -> {
+                var time = ARRIVAL.get();
+                time[0] = queued;
+                try {
+                    command.run();
+                } finally {
+                    time[0] = 0;
+                }
+            });
+        };
+    }
+
+    Limiter read(String method, String path, boolean adaptive) {
+        return limiter(method, path, maxReads, adaptive, null, writes);
+    }
+
+    Limiter write(String method, String path, boolean adaptive) {
+        return limiter(method, path, maxWrites, adaptive, writes, null);
+    }
+
+    private Limiter limiter(String method, String path, int max, boolean adaptive, Limiter.Group group, Limiter.Group yieldTo) {
+        return limiters.computeIfAbsent(path + " " + method, k -> new Limiter(
+                String.format("method=\"%s\",route=\"%s\"", method, path),
+                max,
+                adaptive ? target : 0,
+                group,
+                yieldTo
+        ));
+    }
+
+    void write(StringBuilder out) {
+        Exposition.family(out, "admission_limit", "gauge", "Current concurrency limit by route.");
+        for (var limiter : limiters.values()) {
+            Exposition.sample(out, "admission_limit", limiter.getLabels(), limiter.getLimit());
+        }
+        Exposition.family(out, "admission_in_flight", "gauge", "Admitted requests in progress by route.");
+        for (var limiter : limiters.values()) {
+            Exposition.sample(out, "admission_in_flight", limiter.getLabels(), limiter.getInFlight());
+        }
+        Exposition.family(out, "admission_rejected_total", "counter", "Requests rejected with 503 by route.");
+        for (var limiter : limiters.values()) {
+            Exposition.sample(out, "admission_rejected_total", limiter.getLabels(), limiter.getRejected());
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package net.swined.revolut;
+
+import net.swined.revolut.storage.Amount;
+import org.joda.money.CurrencyUnit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class BinaryClient implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BinaryClient.class.getName());
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger tags = new AtomicInteger();
+    private final AtomicInteger writers = new AtomicInteger();
+    private final Thread reader;
+
+    public BinaryClient(InetSocketAddress address) throws IOException {
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.reader = new Thread(this::read, "binary-client-" + address);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public CompletableFuture<Response> createAccount(String id, CurrencyUnit currency) {
+        var payload = new Payload();
+        payload.writeString(id);
+        payload.writeCurrency(currency);
+        return send(BinaryServer.CREATE_ACCOUNT, payload);
+    }
+
+    public CompletableFuture<Response> getBalance(String id) {
+        var payload = new Payload();
+        payload.writeString(id);
+        return send(BinaryServer.GET_BALANCE, payload);
+    }
+
+    public CompletableFuture<Response> operation(String id, Map<String, Amount> legs) {
+        var payload = new Payload();
+        payload.writeString(id);
+        payload.writeShort(legs.size());
+        legs.forEach((account, amount) -> {
+            payload.writeString(account);
+            payload.writeCurrency(amount.getCurrency());
+            payload.writeLong(amount.getMinor());
+        });
+        return send(BinaryServer.OPERATION, payload);
+    }
+
+    private CompletableFuture<Response> send(byte type, Payload payload) {
+        var tag = tags.incrementAndGet();
+        var future = new CompletableFuture<Response>();
+        pending.put(tag, future);
+        writers.incrementAndGet();
+        try {
+            synchronized (out) {
+                out.writeInt(5 + payload.size());
+                out.writeInt(tag);
+                out.writeByte(type);
+                payload.writeTo(out);
+                // concurrent senders leave the flush to the last one out
+                if (writers.decrementAndGet() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(tag);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                var length = in.readInt();
+                var tag = in.readInt();
+                var code = in.readShort();
+                Response response;
+                if (length == 6) {
+                    response = new Response(code, null, null, 0);
+                } else if (code == 200) {
+                    var currency = new byte[3];
+                    in.readFully(currency);
+                    var balance = new Amount(CurrencyUnit.of(new String(currency, StandardCharsets.US_ASCII)), in.readLong());
+                    response = new Response(code, null, balance, in.readLong());
+                } else {
+                    var message = new byte[in.readUnsignedShort()];
+                    in.readFully(message);
+                    response = new Response(code, new String(message, StandardCharsets.UTF_8), null, 0);
+                }
+                var future = pending.remove(tag);
+                if (future != null) {
+                    future.complete(response);
+                }
+            }
+        } catch (IOException e) {
+            logger.fine(() -> "binary connection closed: " + e.getMessage());
+            var error = new UncheckedIOException(e);
+            pending.values().forEach(future -> future.completeExceptionally(error));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static class Response {
+
+        private final int code;
+        private final String error;
+        private final Amount balance;
+        private final long version;
+
+        Response(int code, String error, Amount balance, long version) {
+            this.code = code;
+            this.error = error;
+            this.balance = balance;
+            this.version = version;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Amount getBalance() {
+            return balance;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+    }
+
+    private static final class Payload extends ByteArrayOutputStream {
+
+        void writeString(String value) {
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeShort(bytes.length);
+            writeBytes(bytes);
+        }
+
+        void writeCurrency(CurrencyUnit currency) {
+            writeBytes(currency.getCode().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void writeShort(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,351 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.storage.Amount;
+import net.swined.revolut.storage.Diff;
+import net.swined.revolut.storage.Storage;
+import org.joda.money.CurrencyUnit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+class BinaryServer {
+
+    static final byte CREATE_ACCOUNT = 1;
+    static final byte GET_BALANCE = 2;
+    static final byte OPERATION = 3;
+    static final int MAX_FRAME = 1 << 22;
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final Logger logger = Logger.getLogger(BinaryServer.class.getName());
+    private final Storage storage;
+    private final AccessLog accessLog;
+    private final Kind createAccount;
+    private final Kind getBalance;
+    private final Kind operation;
+
+    BinaryServer(Storage storage, Metrics metrics, AccessLog accessLog, Admission admission) {
+        this.storage = storage;
+        this.accessLog = accessLog;
+        this.createAccount = new Kind(metrics, "create-account", admission.write("binary", "create-account", true));
+        this.getBalance = new Kind(metrics, "get-balance", admission.read("binary", "get-balance", true));
+        this.operation = new Kind(metrics, "operation", admission.write("binary", "operation", true));
+    }
+
+    Listener start(InetSocketAddress address, int backlog, Executor executor) throws IOException {
+        var server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(address, backlog);
+        var connections = ConcurrentHashMap.<Socket>newKeySet();
+        var acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    var socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    connections.add(socket);
+                    var thread = new Thread(() -> {
+                        try {
+                            new Connection(socket, executor).run();
+                        } finally {
+                            connections.remove(socket);
+                        }
+                    }, "binary-" + socket.getRemoteSocketAddress());
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    if (!server.isClosed()) {
+                        logger.warning(String.format("accepting binary connection failed: %s", e.getMessage()));
+                    }
+                }
+            }
+        }, "binary-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return new Listener() {
+            @Override
+            public InetSocketAddress getAddress() {
+                return (InetSocketAddress) server.getLocalSocketAddress();
+            }
+
+            @Override
+            public void stop() {
+                try {
+                    server.close();
+                    for (var connection : connections) {
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                    logger.warning(String.format("closing binary listener failed: %s", e.getMessage()));
+                }
+            }
+        };
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var length = Short.toUnsignedInt(buffer.getShort());
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        var value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static CurrencyUnit readCurrency(ByteBuffer buffer) {
+        if (buffer.remaining() < 3) {
+            throw new BufferUnderflowException();
+        }
+        var code = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), 3, StandardCharsets.US_ASCII);
+        buffer.position(buffer.position() + 3);
+        try {
+            return CurrencyUnit.of(code);
+        } catch (RuntimeException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, e);
+        }
+    }
+
+    private static ClientError overloaded() {
+        return new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, "too many requests in flight, retry later");
+    }
+
+    private static void end(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "invalid frame");
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final Executor executor;
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        private final AtomicInteger writers = new AtomicInteger();
+        private Thread reader;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private byte[] frame = new byte[256];
+
+        Connection(Socket socket, Executor executor) {
+            this.socket = socket;
+            this.executor = executor;
+        }
+
+        void run() {
+            try (socket) {
+                reader = Thread.currentThread();
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                while (true) {
+                    if (in.available() < Integer.BYTES) {
+                        flush();
+                    }
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    if (length < 5 || length > MAX_FRAME) {
+                        throw new IOException("invalid frame length " + length);
+                    }
+                    if (frame.length < length) {
+                        frame = new byte[Math.max(length, frame.length * 2)];
+                    }
+                    if (in.available() < length) {
+                        flush();
+                    }
+                    in.readFully(frame, 0, length);
+                    inFlight.acquire();
+                    handle(ByteBuffer.wrap(frame, 0, length));
+                }
+            } catch (IOException e) {
+                logger.fine(() -> String.format("binary connection %s closed: %s", socket.getRemoteSocketAddress(), e.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void handle(ByteBuffer buffer) {
+            var start = System.nanoTime();
+            var tag = buffer.getInt();
+            var type = buffer.get();
+            switch (type) {
+                case GET_BALANCE: {
+                    String id = null;
+                    if (!getBalance.limiter.tryAcquire(start)) {
+                        fail(tag, getBalance, null, overloaded(), start);
+                        break;
+                    }
+                    try {
+                        id = readString(buffer);
+                        end(buffer);
+                        var account = storage.get(id);
+                        var state = account.getState();
+                        balance(tag, account.getCurrency(), state.getBalance(), state.getSequence());
+                        completed(getBalance, id, HttpURLConnection.HTTP_OK, start);
+                    } catch (RuntimeException e) {
+                        fail(tag, getBalance, id, e, start);
+                    } finally {
+                        getBalance.limiter.release(start);
+                    }
+                    break;
+                }
+                case CREATE_ACCOUNT: {
+                    String id = null;
+                    CurrencyUnit currency;
+                    try {
+                        id = readString(buffer);
+                        currency = readCurrency(buffer);
+                        end(buffer);
+                    } catch (RuntimeException e) {
+                        fail(tag, createAccount, id, e, start);
+                        break;
+                    }
+                    var account = id;
+                    dispatch(tag, createAccount, account, start, () -> storage.create(account, currency));
+                    break;
+                }
+                case OPERATION: {
+                    String id = null;
+                    Diff diff;
+                    try {
+                        id = readString(buffer);
+                        var legs = Short.toUnsignedInt(buffer.getShort());
+                        var builder = new Diff.Builder();
+                        for (int i = 0; i < legs; i++) {
+                            var account = readString(buffer);
+                            builder.add(account, new Amount(readCurrency(buffer), buffer.getLong()));
+                        }
+                        end(buffer);
+                        diff = builder.build();
+                    } catch (RuntimeException e) {
+                        fail(tag, operation, id, e, start);
+                        break;
+                    }
+                    var operationId = id;
+                    dispatch(tag, operation, operationId, start, () -> storage.update(operationId, diff));
+                    break;
+                }
+                default:
+                    fail(tag, null, null, new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "unknown request type " + type), start);
+            }
+        }
+
+        private void dispatch(int tag, Kind kind, String id, long start, Runnable action) {
+            try {
+                executor.execute(() -> execute(tag, kind, id, start, action));
+            } catch (RejectedExecutionException e) {
+                // the reply releases the in-flight permit taken for this frame
+                fail(tag, kind, id, overloaded(), start);
+            }
+        }
+
+        private void execute(int tag, Kind kind, String id, long start, Runnable action) {
+            if (!kind.limiter.tryAcquire(start)) {
+                fail(tag, kind, id, overloaded(), start);
+                return;
+            }
+            try {
+                action.run();
+                reply(tag, HttpURLConnection.HTTP_OK, null, null, 0, 0);
+                completed(kind, id, HttpURLConnection.HTTP_OK, start);
+            } catch (RuntimeException e) {
+                fail(tag, kind, id, e, start);
+            } finally {
+                kind.limiter.release(start);
+            }
+        }
+
+        private void fail(int tag, Kind kind, String id, RuntimeException e, long start) {
+            if (e instanceof BufferUnderflowException) {
+                e = new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "invalid frame");
+            } else if (!(e instanceof ClientError)) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+            }
+            var code = e instanceof ClientError ? ((ClientError) e).getCode() : HttpURLConnection.HTTP_INTERNAL_ERROR;
+            reply(tag, code, String.valueOf(e.getMessage()), null, 0, 0);
+            if (kind != null) {
+                completed(kind, id, code, start);
+            }
+        }
+
+        private void balance(int tag, CurrencyUnit currency, long balance, long version) {
+            reply(tag, HttpURLConnection.HTTP_OK, null, currency, balance, version);
+        }
+
+        private void reply(int tag, int code, String error, CurrencyUnit currency, long balance, long version) {
+            try {
+                var message = error == null ? null : error.getBytes(StandardCharsets.UTF_8);
+                var length = 6 + (message != null ? 2 + Math.min(message.length, 0xffff) : currency != null ? 19 : 0);
+                writers.incrementAndGet();
+                synchronized (this) {
+                    out.writeInt(length);
+                    out.writeInt(tag);
+                    out.writeShort(code);
+                    if (message != null) {
+                        out.writeShort(Math.min(message.length, 0xffff));
+                        out.write(message, 0, Math.min(message.length, 0xffff));
+                    } else if (currency != null) {
+                        out.writeBytes(currency.getCode());
+                        out.writeLong(balance);
+                        out.writeLong(version);
+                    }
+                    // replies written by the reader thread are flushed once it runs out of pipelined requests
+                    if (writers.decrementAndGet() == 0 && Thread.currentThread() != reader) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                logger.fine(() -> String.format("binary reply to %s failed: %s", socket.getRemoteSocketAddress(), e.getMessage()));
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        private synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        private void completed(Kind kind, String id, int code, long start) {
+            kind.route.record(code, start);
+            accessLog.record("binary", kind.name, id, code, start);
+        }
+
+    }
+
+    private static final class Kind {
+
+        private final String name;
+        private final Metrics.Route route;
+        private final Limiter limiter;
+
+        Kind(Metrics metrics, String name, Limiter limiter) {
+            this.name = name;
+            this.route = metrics.route("binary", name);
+            this.limiter = limiter;
+        }
+
+    }
+
+}
@@ -0,0 +1,484 @@
+package net.swined.revolut;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import net.swined.revolut.request.BatchOperationRequest;
+import net.swined.revolut.request.HistoryRequest;
+import net.swined.revolut.request.NewAccountRequest;
+import net.swined.revolut.request.NewOperationRequest;
+import net.swined.revolut.storage.Account;
+import net.swined.revolut.storage.Aggregates;
+import net.swined.revolut.storage.Amount;
+import net.swined.revolut.storage.Change;
+import net.swined.revolut.storage.Diff;
+import net.swined.revolut.storage.Operation;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+class Codec {
+
+    private static final Logger logger = Logger.getLogger(Codec.class.getName());
+    private static final JsonFactory factory = new JsonFactory();
+    private static final String INVALID_JSON = "invalid json";
+    private static final int POOL_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_POOLED_CAPACITY = 16 << 10;
+    static final Body EMPTY = constant("{}");
+    private static final Map<String, Body> ERRORS = new HashMap<>();
+    private final BlockingQueue<Body> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    static {
+        for (var message : new String[]{
+                INVALID_JSON,
+                "insufficient balance",
+                "balance overflow",
+                "operation mismatch",
+                "account id is missing",
+                "operation id is missing",
+                "account already exists with different currency"
+        }) {
+            var body = new Body(INITIAL_CAPACITY, false);
+            writeError(body, message);
+            ERRORS.put(message, body);
+        }
+    }
+
+    private static Body constant(String json) {
+        var body = new Body(json.length(), false);
+        body.write(json.getBytes(StandardCharsets.UTF_8), 0, json.length());
+        return body;
+    }
+
+    private static ClientError invalidJson(JsonProcessingException e) {
+        logger.warning(e.getMessage());
+        return invalidJson();
+    }
+
+    private static ClientError invalidJson() {
+        return new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, INVALID_JSON);
+    }
+
+    private static String scalar(JsonParser parser) throws IOException {
+        var token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == null || !token.isScalarValue()) {
+            throw invalidJson();
+        } else {
+            return parser.getText();
+        }
+    }
+
+    private static Diff readDiff(JsonParser parser) throws IOException {
+        var builder = new Diff.Builder();
+        ClientError error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var account = parser.getCurrentName();
+            var amount = scalar(parser);
+            if (error == null) {
+                try {
+                    builder.add(account, amount);
+                } catch (ClientError e) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return builder.build();
+    }
+
+    NewAccountRequest readAccount(InputStream in) throws IOException {
+        try (var parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw invalidJson();
+            }
+            String currency = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (!"currency".equals(parser.getCurrentName())) {
+                    throw invalidJson();
+                }
+                currency = scalar(parser);
+            }
+            if (currency == null) {
+                throw invalidJson();
+            }
+            return new NewAccountRequest(currency);
+        } catch (JsonProcessingException e) {
+            throw invalidJson(e);
+        }
+    }
+
+    NewOperationRequest readOperation(InputStream in) throws IOException {
+        try (var parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw invalidJson();
+            }
+            return new NewOperationRequest(readDiff(parser));
+        } catch (JsonProcessingException e) {
+            throw invalidJson(e);
+        }
+    }
+
+    BatchReader batchReader(InputStream in) throws IOException {
+        return new BatchReader(factory.createParser(in));
+    }
+
+    BatchWriter batchWriter(OutputStream out) throws IOException {
+        return new BatchWriter(factory.createGenerator(out));
+    }
+
+    BalanceWriter balanceWriter(OutputStream out) throws IOException {
+        return new BalanceWriter(factory.createGenerator(out));
+    }
+
+    ChangeWriter changeWriter(OutputStream out) throws IOException {
+        return new ChangeWriter(factory.createGenerator(out));
+    }
+
+    Body balance(Amount balance) {
+        var body = acquire();
+        try (var generator = factory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeStringField("balance", balance.toString());
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body;
+    }
+
+    Body stats(List<Aggregates.Total> totals) {
+        var body = acquire();
+        try (var generator = factory.createGenerator(body)) {
+            generator.writeStartObject();
+            for (var total : totals) {
+                generator.writeObjectFieldStart(total.getCurrency().getCode());
+                generator.writeNumberField("accounts", total.getAccounts());
+                generator.writeStringField("total", new Amount(total.getCurrency(), total.getBalance()).toString());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body;
+    }
+
+    Body operation(Operation operation) {
+        var body = acquire();
+        try (var generator = factory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeStringField("id", operation.getId());
+            if (!operation.isSettled()) {
+                generator.writeStringField("status", "pending");
+            } else if (operation.getError() == null) {
+                generator.writeStringField("status", "done");
+                generator.writeNumberField("sequence", operation.getSequence());
+            } else {
+                generator.writeStringField("status", "failed");
+                generator.writeNumberField("code", operation.getCode());
+                generator.writeStringField("error", operation.getError());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body;
+    }
+
+    Body history(Account account, HistoryRequest request) {
+        var body = acquire();
+        var currency = account.getCurrency();
+        try (var generator = factory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("operations");
+            var read = account.getLedger().read(request.after, request.limit, (id, sequence, time, amount, balance) -> {
+                generator.writeStartObject();
+                generator.writeStringField("id", id);
+                generator.writeNumberField("sequence", sequence);
+                generator.writeStringField("amount", new Amount(currency, amount).toString());
+                generator.writeStringField("balance", new Amount(currency, balance).toString());
+                generator.writeEndObject();
+            });
+            generator.writeEndArray();
+            generator.writeNumberField("next", request.after + read);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body;
+    }
+
+    Body error(String message) {
+        var constant = message == null ? null : ERRORS.get(message);
+        if (constant != null) {
+            return constant;
+        }
+        var body = acquire();
+        writeError(body, message);
+        return body;
+    }
+
+    private static void writeError(Body body, String message) {
+        try (var generator = factory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeStringField("error", message);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Body acquire() {
+        var body = pool.poll();
+        if (body == null) {
+            return new Body(INITIAL_CAPACITY, true);
+        } else {
+            body.length = 0;
+            return body;
+        }
+    }
+
+    void release(Body body) {
+        if (body.pooled && body.array.length <= MAX_POOLED_CAPACITY) {
+            pool.offer(body);
+        }
+    }
+
+    static final class Body extends OutputStream {
+
+        private final boolean pooled;
+        private byte[] array;
+        private int length;
+
+        private Body(int capacity, boolean pooled) {
+            this.array = new byte[capacity];
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void write(int b) {
+            if (length == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (length + len > array.length) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, length + len));
+            }
+            System.arraycopy(b, off, array, length, len);
+            length += len;
+        }
+
+        byte[] array() {
+            return array;
+        }
+
+        int length() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return new String(array, 0, length, StandardCharsets.UTF_8);
+        }
+
+    }
+
+    static final class BatchReader implements Closeable {
+
+        private final JsonParser parser;
+        private boolean started;
+        private boolean array;
+
+        private BatchReader(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        BatchOperationRequest next() throws IOException {
+            try {
+                var token = parser.nextToken();
+                if (!started) {
+                    started = true;
+                    if (token == JsonToken.START_ARRAY) {
+                        array = true;
+                        token = parser.nextToken();
+                    }
+                }
+                if (token == null && !array || token == JsonToken.END_ARRAY && array) {
+                    return null;
+                } else if (token != JsonToken.START_OBJECT) {
+                    throw invalidJson();
+                }
+                String id = null;
+                Diff diff = null;
+                ClientError error = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    var field = parser.getCurrentName();
+                    if ("id".equals(field)) {
+                        id = scalar(parser);
+                    } else if ("diff".equals(field)) {
+                        var value = parser.nextToken();
+                        if (value == JsonToken.START_OBJECT) {
+                            try {
+                                diff = readDiff(parser);
+                            } catch (ClientError e) {
+                                error = e;
+                            }
+                        } else if (value != JsonToken.VALUE_NULL) {
+                            throw invalidJson();
+                        }
+                    } else {
+                        throw invalidJson();
+                    }
+                }
+                return new BatchOperationRequest(id, diff == null ? new Diff.Builder().build() : diff, error);
+            } catch (JsonProcessingException e) {
+                throw invalidJson(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+
+    }
+
+    static final class BatchWriter implements Closeable, Flushable {
+
+        private final JsonGenerator generator;
+
+        private BatchWriter(JsonGenerator generator) {
+            this.generator = generator;
+            this.generator.setRootValueSeparator(null);
+        }
+
+        void write(String id, int code, String error) throws IOException {
+            generator.writeStartObject();
+            if (id != null) {
+                generator.writeStringField("id", id);
+            }
+            generator.writeNumberField("code", code);
+            if (error != null) {
+                generator.writeStringField("error", error);
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+
+    }
+
+    static final class BalanceWriter implements Closeable {
+
+        private final JsonGenerator generator;
+
+        private BalanceWriter(JsonGenerator generator) {
+            this.generator = generator;
+            this.generator.setRootValueSeparator(null);
+        }
+
+        void write(String id, Amount balance) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", id);
+            generator.writeStringField("balance", balance.toString());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+
+    }
+
+    static final class ChangeWriter implements Closeable, Flushable {
+
+        private final JsonGenerator generator;
+
+        private ChangeWriter(JsonGenerator generator) {
+            this.generator = generator;
+            this.generator.setRootValueSeparator(null);
+        }
+
+        void write(Change change) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("sequence", change.getSequence());
+            generator.writeStringField("id", change.getId());
+            generator.writeStringField("time", Instant.ofEpochMilli(change.getTime()).toString());
+            if (change.getDiff() == null) {
+                generator.writeStringField("type", "account");
+                generator.writeStringField("currency", change.getCurrency().getCode());
+            } else {
+                generator.writeStringField("type", "operation");
+                generator.writeObjectFieldStart("diff");
+                var diff = change.getDiff();
+                for (int i = 0; i < diff.size(); i++) {
+                    generator.writeStringField(diff.getAccount(i), diff.getAmount(i).toString());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        void heartbeat() throws IOException {
+            generator.writeRaw('\n');
+            generator.flush();
+        }
+
+        void error(int code, String error) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("code", code);
+            generator.writeStringField("error", error);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package net.swined.revolut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+class Limiter {
+
+    private static final double BACKOFF = 0.9;
+    private final String labels;
+    private final int max;
+    private final long target;
+    private final Group group;
+    private final Group yieldTo;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+    private long decreased = System.nanoTime();
+
+    Limiter(String labels, int max, long target, Group group, Group yieldTo) {
+        this.labels = labels;
+        this.max = Math.max(1, max);
+        this.target = target;
+        this.group = group;
+        this.yieldTo = yieldTo;
+        this.limit = this.max;
+    }
+
+    String getLabels() {
+        return labels;
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    boolean tryAcquire(long arrival) {
+        if (target > 0) {
+            var now = System.nanoTime();
+            // a request that already waited past the target for a handler thread is answered right away
+            if (now - arrival > target) {
+                congested(now, true);
+                rejected.increment();
+                return false;
+            }
+        }
+        while (true) {
+            var current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long arrival) {
+        var current = inFlight.decrementAndGet();
+        if (target > 0) {
+            var now = System.nanoTime();
+            if (now - arrival > target) {
+                congested(now, true);
+            } else if (yieldTo != null && yieldTo.isCongested(now)) {
+                congested(now, false);
+            } else if (limit < max && current + 1 >= limit / 2) {
+                increase();
+            }
+        }
+    }
+
+    private synchronized void congested(long now, boolean own) {
+        if (own && group != null) {
+            group.congestedUntil = now + target;
+        }
+        // back off at most once per target interval, requests completing in the meantime saw the old limit
+        if (now - decreased > target) {
+            limit = Math.max(1, limit * BACKOFF);
+            decreased = now;
+        }
+    }
+
+    private synchronized void increase() {
+        limit = Math.min(max, limit + 1 / limit);
+    }
+
+    static final class Group {
+
+        private volatile long congestedUntil = System.nanoTime();
+
+        boolean isCongested(long now) {
+            return now - congestedUntil < 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,365 @@
+package net.swined.revolut;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.swined.revolut.storage.Amount;
+import org.joda.money.CurrencyUnit;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+public class LoadGenerator {
+
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+    private static final CurrencyUnit CURRENCY = CurrencyUnit.USD;
+    private static final int RECENT = 1024;
+    private static final int ERROR = 0;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final String prefix = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicReferenceArray<Sent> recent = new AtomicReferenceArray<>(RECENT);
+    private final AtomicLong deposited = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final Queue<Sent> unresolved = new ConcurrentLinkedQueue<>();
+    private final Map<Kind, Map<Integer, Histogram>> histograms = new EnumMap<>(Kind.class);
+    private final URI target;
+    private final int accounts;
+    private final long balance;
+    private final Map<Kind, Integer> mix;
+    private volatile long recordFrom = Long.MAX_VALUE;
+
+    public LoadGenerator(URI target, int accounts, long balance, Map<Kind, Integer> mix) {
+        this.target = target;
+        this.accounts = accounts;
+        this.balance = balance;
+        this.mix = mix;
+        for (var kind : Kind.values()) {
+            histograms.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    private static Map<Kind, Integer> mix(String mix) {
+        var result = new EnumMap<Kind, Integer>(Kind.class);
+        for (var entry : mix.split(",")) {
+            var pair = entry.split(":");
+            result.put(Kind.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return result;
+    }
+
+    private String account(int index) {
+        return prefix + "-" + index;
+    }
+
+    private String operation() {
+        return prefix + "-op-" + ids.incrementAndGet();
+    }
+
+    private HttpRequest GET(String path) {
+        return HttpRequest.newBuilder(target.resolve(path)).build();
+    }
+
+    private HttpRequest PUT(String path, Map<String, String> body) {
+        try {
+            return HttpRequest.newBuilder(target.resolve(path))
+                    .PUT(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int send(HttpRequest request) {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ERROR;
+        }
+    }
+
+    private long balance(int index) throws IOException, InterruptedException {
+        var response = client.send(GET("/account/" + account(index)), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException(String.format("GET /account/%s returned %s", account(index), response.statusCode()));
+        }
+        return Amount.parse(mapper.readTree(response.body()).get("balance").asText()).getMinor();
+    }
+
+    private void setUp() {
+        IntStream.range(0, accounts).parallel().forEach(i -> {
+            var create = send(PUT("/account/" + account(i), Map.of("currency", CURRENCY.getCode())));
+            var fund = send(PUT("/operation/" + prefix + "-init-" + i, Map.of(account(i), new Amount(CURRENCY, balance).toString())));
+            if (create != 200 || fund != 200) {
+                throw new IllegalStateException(String.format("setting up account %s failed: %s/%s", account(i), create, fund));
+            }
+        });
+    }
+
+    private Kind pick() {
+        var total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        var random = ThreadLocalRandom.current().nextInt(total);
+        for (var entry : mix.entrySet()) {
+            random -= entry.getValue();
+            if (random < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("empty mix");
+    }
+
+    private Sent next() {
+        var random = ThreadLocalRandom.current();
+        var kind = pick();
+        if (kind == Kind.RETRY) {
+            var sent = recent.get(random.nextInt(RECENT));
+            if (sent != null) {
+                return new Sent(Kind.RETRY, sent.id, sent.request, sent.amount, sent.status);
+            }
+            kind = Kind.GET;
+        }
+        var from = random.nextInt(accounts);
+        switch (kind) {
+            case GET:
+                return new Sent(kind, null, GET("/account/" + account(from)), 0, ERROR);
+            case DEPOSIT:
+                var amount = 1 + random.nextLong(100);
+                var id = operation();
+                return new Sent(kind, id, PUT("/operation/" + id, Map.of(account(from), new Amount(CURRENCY, amount).toString())), amount, ERROR);
+            case TRANSFER:
+                var to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                var value = 1 + random.nextLong(100);
+                var transfer = operation();
+                return new Sent(kind, transfer, PUT("/operation/" + transfer, Map.of(
+                        account(from), new Amount(CURRENCY, -value).toString(),
+                        account(to), new Amount(CURRENCY, value).toString()
+                )), 0, ERROR);
+            default:
+                throw new IllegalStateException("unknown kind: " + kind);
+        }
+    }
+
+    private void completed(Sent sent, int status, long start) {
+        var latency = System.nanoTime() - start;
+        if (start >= recordFrom) {
+            histograms.get(sent.kind).computeIfAbsent(status, s -> new Histogram()).record(latency / 1000);
+        }
+        if (sent.kind == Kind.RETRY) {
+            if (status != ERROR && status != sent.status) {
+                mismatches.incrementAndGet();
+            }
+        } else if (sent.kind != Kind.GET) {
+            if (status == ERROR) {
+                if (sent.amount != 0) {
+                    unresolved.add(sent);
+                }
+            } else {
+                if (status == 200) {
+                    deposited.addAndGet(sent.amount);
+                }
+                recent.set(ThreadLocalRandom.current().nextInt(RECENT), new Sent(sent.kind, sent.id, sent.request, sent.amount, status));
+            }
+        }
+    }
+
+    private void open(double rate, int concurrency, long end) throws InterruptedException {
+        var period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        var inflight = new Semaphore(concurrency);
+        for (long intended = System.nanoTime(); intended < end; intended += period) {
+            for (long now; (now = System.nanoTime()) < intended; ) {
+                LockSupport.parkNanos(intended - now);
+            }
+            var sent = next();
+            var start = intended;
+            inflight.acquire();
+            client.sendAsync(sent.request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                inflight.release();
+                completed(sent, error == null ? response.statusCode() : ERROR, start);
+            });
+        }
+        inflight.acquire(concurrency);
+    }
+
+    private void closed(int concurrency, long end) throws InterruptedException {
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < concurrency; i++) {
+            var thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    var sent = next();
+                    var start = System.nanoTime();
+                    completed(sent, send(sent.request), start);
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void resolve() {
+        for (Sent sent; (sent = unresolved.poll()) != null; ) {
+            int status = ERROR;
+            for (int attempt = 0; attempt < 5 && status == ERROR; attempt++) {
+                status = send(sent.request);
+            }
+            if (status == ERROR) {
+                throw new IllegalStateException(String.format("could not resolve operation %s", sent.id));
+            } else if (status == 200) {
+                deposited.addAndGet(sent.amount);
+            }
+        }
+    }
+
+    public Report run(double rate, int concurrency, Duration warmup, Duration duration) throws InterruptedException, IOException {
+        setUp();
+        var start = System.nanoTime();
+        var end = start + warmup.plus(duration).toNanos();
+        recordFrom = start + warmup.toNanos();
+        if (rate > 0) {
+            open(rate, concurrency, end);
+        } else {
+            closed(concurrency, end);
+        }
+        resolve();
+        long actual = 0;
+        for (int i = 0; i < accounts; i++) {
+            actual += balance(i);
+        }
+        var snapshot = new EnumMap<Kind, Map<Integer, Histogram>>(Kind.class);
+        histograms.forEach((kind, statuses) -> snapshot.put(kind, new TreeMap<>(statuses)));
+        return new Report(snapshot, duration, balance * accounts + deposited.get(), actual, mismatches.get());
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        var generator = new LoadGenerator(
+                URI.create(args[0]),
+                Integer.getInteger("load.accounts", 1000),
+                Amount.parse(System.getProperty("load.balance", "USD 1000")).getMinor(),
+                mix(System.getProperty("load.mix", "get:50,deposit:10,transfer:35,retry:5"))
+        );
+        var mode = System.getProperty("load.mode", "open");
+        var rate = Double.parseDouble(System.getProperty("load.rate", "1000"));
+        var report = generator.run(
+                mode.equals("closed") ? 0 : rate,
+                Integer.getInteger("load.concurrency", 64),
+                Duration.ofSeconds(Long.getLong("load.warmupSeconds", 5L)),
+                Duration.ofSeconds(Long.getLong("load.durationSeconds", 30L))
+        );
+        report.print(System.out);
+        if (!report.isConserved() || report.getMismatches() > 0) {
+            logger.severe(String.format("expected total %s, actual %s, %s retries returned a different status", report.getExpected(), report.getActual(), report.getMismatches()));
+            System.exit(1);
+        }
+    }
+
+    public enum Kind {
+        GET, DEPOSIT, TRANSFER, RETRY
+    }
+
+    private static final class Sent {
+
+        private final Kind kind;
+        private final String id;
+        private final HttpRequest request;
+        private final long amount;
+        private final int status;
+
+        private Sent(Kind kind, String id, HttpRequest request, long amount, int status) {
+            this.kind = kind;
+            this.id = id;
+            this.request = request;
+            this.amount = amount;
+            this.status = status;
+        }
+
+    }
+
+    public static final class Report {
+
+        private final Map<Kind, Map<Integer, Histogram>> histograms;
+        private final Duration duration;
+        private final long expected;
+        private final long actual;
+        private final long mismatches;
+
+        private Report(Map<Kind, Map<Integer, Histogram>> histograms, Duration duration, long expected, long actual, long mismatches) {
+            this.histograms = histograms;
+            this.duration = duration;
+            this.expected = expected;
+            this.actual = actual;
+            this.mismatches = mismatches;
+        }
+
+        public long getCount(Kind kind) {
+            return histograms.get(kind).values().stream().mapToLong(Histogram::count).sum();
+        }
+
+        public long getExpected() {
+            return expected;
+        }
+
+        public long getActual() {
+            return actual;
+        }
+
+        public long getMismatches() {
+            return mismatches;
+        }
+
+        public boolean isConserved() {
+            return expected == actual;
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format("%-10s %6s %10s %10s %10s %10s %10s %10s", "endpoint", "status", "count", "rps", "p50_us", "p99_us", "p999_us", "max_us"));
+            histograms.forEach((kind, statuses) -> {
+                var rows = new ArrayList<Map.Entry<String, Histogram>>();
+                statuses.forEach((status, histogram) -> rows.add(Map.entry(status == ERROR ? "error" : status.toString(), histogram)));
+                if (statuses.size() > 1) {
+                    var all = new Histogram();
+                    statuses.values().forEach(all::add);
+                    rows.add(Map.entry("all", all));
+                }
+                for (var row : rows) {
+                    var histogram = row.getValue();
+                    var count = histogram.count();
+                    out.println(String.format(
+                            "%-10s %6s %10s %10.0f %10s %10s %10s %10s",
+                            kind.name().toLowerCase(), row.getKey(), count, count * 1000.0 / duration.toMillis(),
+                            histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9), histogram.max()
+                    ));
+                }
+            });
+            out.println(String.format("total balance: expected %s, actual %s", new Amount(CURRENCY, expected), new Amount(CURRENCY, actual)));
+            out.println(String.format("retries with a different status: %s", mismatches));
+        }
+
+    }
+
+}
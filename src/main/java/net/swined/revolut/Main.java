@@ -1,14 +1,229 @@
 package net.swined.revolut;
 
+import net.swined.revolut.http.NioTransport;
+import net.swined.revolut.http.SunTransport;
+import net.swined.revolut.http.Transport;
+import net.swined.revolut.storage.AccountStore;
+import net.swined.revolut.storage.CompactAccountStore;
+import net.swined.revolut.storage.Engine;
+import net.swined.revolut.storage.FileJournal;
+import net.swined.revolut.storage.Follower;
+import net.swined.revolut.storage.HeapAccountStore;
+import net.swined.revolut.storage.Journal;
+import net.swined.revolut.storage.Leader;
+import net.swined.revolut.storage.LockingEngine;
+import net.swined.revolut.storage.MemoryJournal;
+import net.swined.revolut.storage.Operations;
+import net.swined.revolut.storage.ShardedEngine;
+import net.swined.revolut.storage.Snapshots;
 import net.swined.revolut.storage.Storage;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class Main {
 
+    private static final Logger logger = Logger.getLogger(Main.class.getName());
+
+    private static Journal journal() throws IOException {
+        var dir = System.getProperty("journal.dir");
+        if (dir == null) {
+            return new MemoryJournal();
+        } else {
+            return new FileJournal(
+                    Path.of(dir),
+                    Long.getLong("journal.segmentSize", 64L << 20),
+                    Duration.ofNanos(Long.getLong("journal.commitWindowMicros", 0L) * 1000)
+            );
+        }
+    }
+
+    private static Snapshots snapshots() throws IOException {
+        var dir = System.getProperty("journal.dir");
+        return dir == null ? null : new Snapshots(Path.of(dir));
+    }
+
+    private static Operations operations() {
+        return new Operations(
+                Duration.ofSeconds(Long.getLong("operations.retentionSeconds", 86400L)),
+                Integer.getInteger("operations.buckets", 24),
+                Long.getLong("operations.maxSize", Long.MAX_VALUE)
+        );
+    }
+
+    private static Engine engine() {
+        var engine = System.getProperty("engine", "locking");
+        switch (engine) {
+            case "locking":
+                return new LockingEngine();
+            case "sharded":
+                return new ShardedEngine(Integer.getInteger("engine.shards", Runtime.getRuntime().availableProcessors()));
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+    }
+
+    private static AccountStore accounts() {
+        var accounts = System.getProperty("storage.accounts", "heap");
+        switch (accounts) {
+            case "heap":
+                return new HeapAccountStore();
+            case "compact":
+                return new CompactAccountStore(Integer.getInteger("storage.expectedAccounts", 1 << 20));
+            default:
+                throw new IllegalArgumentException("unknown account store: " + accounts);
+        }
+    }
+
+    private static Set<String> hotAccounts() {
+        return Arrays
+                .stream(System.getProperty("storage.hotAccounts", "").split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private static Transport transport() {
+        var transport = System.getProperty("http.transport", "sun");
+        switch (transport) {
+            case "sun":
+                return new SunTransport();
+            case "nio":
+                return new NioTransport(Integer.getInteger("http.selectors", 1));
+            default:
+                throw new IllegalArgumentException("unknown transport: " + transport);
+        }
+    }
+
+    private static Executor executor() {
+        var executor = System.getProperty("http.executor", "pool");
+        switch (executor) {
+            case "pool":
+                return Executors.newFixedThreadPool(Integer.getInteger("http.threads", 256));
+            case "common":
+                return ForkJoinPool.commonPool();
+            case "virtual":
+                try {
+                    return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("virtual threads require Java 21 or newer", e);
+                }
+            default:
+                throw new IllegalArgumentException("unknown executor: " + executor);
+        }
+    }
+
+    private static InetSocketAddress address(String address) {
+        var separator = address.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("leader address must be host:port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+
+    private static void scheduleSnapshots(Storage storage) {
+        var interval = Long.getLong("snapshot.intervalSeconds", 300L);
+        if (System.getProperty("journal.dir") != null && interval > 0) {
+            var scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    storage.snapshot();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "snapshot failed", e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void scheduleAggregateVerification(Storage storage) {
+        var interval = Long.getLong("stats.verifyIntervalSeconds", 300L);
+        if (interval > 0) {
+            var scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "aggregates");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    storage.verifyAggregates();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "aggregate verification failed", e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
     public static void main(String... args) throws IOException {
-        new Server(new Storage()).run(Integer.parseInt(args[0]), 100, ForkJoinPool.commonPool());
+        var start = System.nanoTime();
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "10000");
+        }
+        var leader = System.getProperty("replication.leader");
+        var storage = new Storage.Builder()
+                .journal(leader == null ? journal() : new MemoryJournal())
+                .snapshots(leader == null ? snapshots() : null)
+                .operations(operations())
+                .engine(leader == null ? engine() : new LockingEngine())
+                .hotAccounts(hotAccounts(), Integer.getInteger("storage.hotAccountStripes", Runtime.getRuntime().availableProcessors()))
+                .changes(Integer.getInteger("changes.capacity", Storage.DEFAULT_CHANGES))
+                .accounts(accounts())
+                .build();
+        var follower = leader == null ? null : new Follower(storage, address(leader), Long.getLong("replication.readTimeoutMillis", 1000L));
+        var port = Integer.getInteger("replication.port");
+        var replication = leader != null || port == null ? null : new Leader(storage, new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (follower != null) {
+                follower.close();
+            }
+            if (replication != null) {
+                replication.close();
+            }
+            storage.close();
+        }));
+        if (follower == null) {
+            scheduleSnapshots(storage);
+        }
+        scheduleAggregateVerification(storage);
+        var accessLog = new AccessLog(Integer.getInteger("accessLog.capacity", 8192), Integer.getInteger("accessLog.sample", 1));
+        var admission = new Admission(
+                Integer.getInteger("admission.maxReads", 1024),
+                Integer.getInteger("admission.maxWrites", 1024),
+                Duration.ofMillis(Long.getLong("admission.latencyTargetMillis", 0L))
+        );
+        var server = new Server.Builder(storage)
+                .batchWindow(Integer.getInteger("batch.window", 256))
+                .accessLog(accessLog)
+                .admission(admission)
+                .maxPending(Integer.getInteger("operations.maxPending", Server.DEFAULT_MAX_PENDING))
+                .batchThreads(Integer.getInteger("batch.threads", Server.DEFAULT_BATCH_THREADS))
+                .build();
+        var executor = executor();
+        server.run(
+                transport(),
+                Integer.parseInt(args[0]),
+                Integer.getInteger("http.backlog", 100),
+                executor
+        );
+        var binaryPort = Integer.getInteger("binary.port");
+        if (binaryPort != null) {
+            server.runBinary(binaryPort, Integer.getInteger("http.backlog", 100), executor);
+        }
+        logger.info(String.format("started in %s ms", (System.nanoTime() - start) / 1_000_000));
     }
 
 }
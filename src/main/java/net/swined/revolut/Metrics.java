@@ -0,0 +1,115 @@
+package net.swined.revolut;
+
+import net.swined.revolut.metrics.Exposition;
+import net.swined.revolut.metrics.Timer;
+import net.swined.revolut.storage.Storage;
+import net.swined.revolut.storage.Submissions;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+class Metrics {
+
+    private static final int[] STATUSES = {200, 202, 304, 400, 404, 405, 409, 412, 500, 503};
+    private final Map<String, Route> routes = new ConcurrentSkipListMap<>();
+
+    private static int slot(int status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i] == status) {
+                return i;
+            }
+        }
+        return STATUSES.length;
+    }
+
+    private static long queued(Executor executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        } else if (executor instanceof ForkJoinPool) {
+            var pool = (ForkJoinPool) executor;
+            return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        } else {
+            return -1;
+        }
+    }
+
+    Route route(String method, String path) {
+        return routes.computeIfAbsent(path + " " + method, k -> new Route(String.format("method=\"%s\",route=\"%s\"", method, path)));
+    }
+
+    String write(Storage storage, Executor executor, Admission admission, Submissions submissions) {
+        var out = new StringBuilder(4096);
+        Exposition.family(out, "http_request_duration_seconds", "histogram", "Time spent handling HTTP requests.");
+        for (var route : routes.values()) {
+            for (int i = 0; i < route.timers.length; i++) {
+                var timer = route.timers[i];
+                if (timer.count() > 0) {
+                    var status = i < STATUSES.length ? Integer.toString(STATUSES[i]) : "other";
+                    timer.write(out, "http_request_duration_seconds", route.labels + ",status=\"" + status + "\"");
+                }
+            }
+        }
+        var queued = queued(executor);
+        if (queued >= 0) {
+            Exposition.family(out, "http_executor_queue_depth", "gauge", "Requests waiting for a handler thread.");
+            Exposition.sample(out, "http_executor_queue_depth", "", queued);
+        }
+        admission.write(out);
+        Exposition.family(out, "storage_lock_wait_seconds", "histogram", "Time an account update waited for exclusive access to its accounts.");
+        storage.getEngine().getLockWait().write(out, "storage_lock_wait_seconds", "");
+        Exposition.family(out, "storage_apply_seconds", "histogram", "Time an account update held exclusive access to its accounts.");
+        storage.getEngine().getApply().write(out, "storage_apply_seconds", "");
+        Exposition.family(out, "storage_accounts", "gauge", "Number of accounts.");
+        Exposition.sample(out, "storage_accounts", "", storage.getAccountCount());
+        var operations = storage.getOperations();
+        Exposition.family(out, "storage_operations", "gauge", "Number of remembered operation ids.");
+        Exposition.sample(out, "storage_operations", "", operations.size());
+        Exposition.family(out, "storage_operations_pending", "gauge", "Operations accepted with 202 and not yet applied.");
+        Exposition.sample(out, "storage_operations_pending", "", submissions.pending());
+        Exposition.family(out, "storage_operation_lookups_total", "counter", "Operation id lookups by outcome.");
+        Exposition.sample(out, "storage_operation_lookups_total", "result=\"hit\"", operations.hits());
+        Exposition.sample(out, "storage_operation_lookups_total", "result=\"miss\"", operations.misses());
+        Exposition.family(out, "storage_operations_removed_total", "counter", "Operation ids forgotten by reason.");
+        Exposition.sample(out, "storage_operations_removed_total", "reason=\"expired\"", operations.expired());
+        Exposition.sample(out, "storage_operations_removed_total", "reason=\"evicted\"", operations.evicted());
+        var aggregates = storage.getAggregates();
+        Exposition.family(out, "storage_aggregate_verifications_total", "counter", "Comparisons of per-currency aggregates with a full scan by outcome.");
+        Exposition.sample(out, "storage_aggregate_verifications_total", "result=\"consistent\"", aggregates.verified());
+        Exposition.sample(out, "storage_aggregate_verifications_total", "result=\"drifted\"", aggregates.drifted());
+        Exposition.sample(out, "storage_aggregate_verifications_total", "result=\"inconclusive\"", aggregates.inconclusive());
+        Exposition.family(out, "changes_consumers_lagged_total", "counter", "Change stream consumers disconnected for falling behind.");
+        Exposition.sample(out, "changes_consumers_lagged_total", "", storage.getChanges().getLagged());
+        var follower = storage.getFollower();
+        if (follower != null) {
+            Exposition.family(out, "replication_connected", "gauge", "Whether the follower is connected to its leader.");
+            Exposition.sample(out, "replication_connected", "", follower.isConnected() ? 1 : 0);
+            Exposition.family(out, "replication_sequence", "gauge", "Last journal sequence replicated from the leader.");
+            Exposition.sample(out, "replication_sequence", "", follower.getSequence());
+            Exposition.family(out, "replication_lag_seconds", "gauge", "Time since the follower last caught up with its leader.");
+            Exposition.sample(out, "replication_lag_seconds", "", follower.getLag() / 1000.0);
+        }
+        return out.toString();
+    }
+
+    static final class Route {
+
+        private final String labels;
+        private final Timer[] timers = new Timer[STATUSES.length + 1];
+
+        private Route(String labels) {
+            this.labels = labels;
+            for (int i = 0; i < timers.length; i++) {
+                timers[i] = new Timer();
+            }
+        }
+
+        void record(int status, long start) {
+            timers[slot(status)].record(System.nanoTime() - start);
+        }
+
+    }
+
+}
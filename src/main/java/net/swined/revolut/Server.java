@@ -1,60 +1,156 @@
 package net.swined.revolut;
 
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
+import net.swined.revolut.http.Exchange;
+import net.swined.revolut.http.Handler;
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.http.SunTransport;
+import net.swined.revolut.http.Transport;
+import net.swined.revolut.request.BalanceRequest;
+import net.swined.revolut.request.BatchOperationRequest;
+import net.swined.revolut.request.ChangesRequest;
+import net.swined.revolut.request.HistoryRequest;
 import net.swined.revolut.request.NewAccountRequest;
 import net.swined.revolut.request.NewOperationRequest;
+import net.swined.revolut.request.OperationRequest;
+import net.swined.revolut.storage.Account;
+import net.swined.revolut.storage.Amount;
+import net.swined.revolut.storage.Changes;
+import net.swined.revolut.storage.Operation;
+import net.swined.revolut.storage.Pipeline;
 import net.swined.revolut.storage.Storage;
+import net.swined.revolut.storage.Submissions;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Server {
 
     private static final Logger logger = Logger.getLogger(Server.class.getName());
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final String OPERATIONS = "/operations";
+    private static final long HEARTBEAT = 15_000;
+    private static final String SEQUENCE = "X-Sequence";
+    private static final String MIN_SEQUENCE = "X-Min-Sequence";
+    private static final String REPLICATION_LAG = "X-Replication-Lag";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String PREFER = "Prefer";
+    private static final String RESPOND_ASYNC = "respond-async";
+    public static final int DEFAULT_MAX_PENDING = 65536;
+    public static final int DEFAULT_BATCH_THREADS = 256;
+    private final Codec codec = new Codec();
+    private final Metrics metrics = new Metrics();
     private final Storage storage;
+    private final int batchWindow;
+    private final Executor batchExecutor;
+    private final AccessLog accessLog;
+    private final Admission admission;
+    private final Submissions submissions;
 
-    public Server(Storage storage) {
-        this.storage = storage;
+    private Server(Builder builder) {
+        this.storage = builder.storage;
+        this.batchWindow = builder.batchWindow;
+        this.batchExecutor = batchExecutor(builder.batchThreads);
+        this.accessLog = builder.accessLog;
+        this.admission = builder.admission;
+        this.submissions = new Submissions(builder.storage, builder.maxPending);
     }
 
-    public HttpServer run(int port, int backlog, Executor executor) throws IOException {
-        var server = HttpServer.create(new InetSocketAddress(port), backlog);
-        server.createContext("/account/", byMethod(Map.of(
-                "GET", restHandler(null, this::getAccount),
-                "PUT", restHandler(NewAccountRequest.class, this::putAccount)
-        )));
-        server.createContext("/operation/", byMethod(Map.of(
-                "PUT", restHandler(NewOperationRequest.class, this::putOperation)
-        )));
-        server.setExecutor(executor);
-        server.start();
-        logger.info(String.format("listening on port %s", port));
-        return server;
+    public Listener run(int port, int backlog, Executor executor) throws IOException {
+        return run(new SunTransport(), port, backlog, executor);
     }
 
-    private static void unsupportedMethodHandler(HttpExchange exchange) throws IOException {
-        exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+    public Listener run(Transport transport, int port, int backlog, Executor executor) throws IOException {
+        var listener = transport.start(new InetSocketAddress(port), backlog, admission.timed(executor), Map.of(
+                "/account/", byMethod("/account/{id}", Map.of(
+                        "GET", byResource("/account/",
+                                admitted(admission.read("GET", "/account/{id}", true), metrics.route("GET", "/account/{id}"), r -> accountHandler(r, executor)),
+                                admitted(admission.read("GET", "/account/{id}/operations", true), metrics.route("GET", "/account/{id}/operations"), r -> restHandler(r, e -> HistoryRequest.parse(e.getRequestURI().getRawQuery()), this::getOperations))
+                        ),
+                        "PUT", admitted(admission.write("PUT", "/account/{id}", true), metrics.route("PUT", "/account/{id}"), r -> restHandler(r, e -> codec.readAccount(e.getRequestBody()), this::putAccount))
+                )),
+                "/operation/", byMethod("/operation/{id}", Map.of(
+                        "GET", admitted(admission.read("GET", "/operation/{id}", true), metrics.route("GET", "/operation/{id}"), r -> operationHandler(r, executor)),
+                        "PUT", admitted(admission.write("PUT", "/operation/{id}", true), metrics.route("PUT", "/operation/{id}"), r -> submitHandler(r, executor))
+                )),
+                "/operations", byMethod("/operations", Map.of(
+                        "POST", admitted(admission.write("POST", "/operations", false), metrics.route("POST", "/operations"), this::batchHandler)
+                )),
+                "/balances", byMethod("/balances", Map.of(
+                        "GET", admitted(admission.read("GET", "/balances", false), metrics.route("GET", "/balances"), this::balancesHandler)
+                )),
+                "/stats", byMethod("/stats", Map.of(
+                        "GET", admitted(admission.read("GET", "/stats", true), metrics.route("GET", "/stats"), r -> restHandler(r, null, (id, request) -> codec.stats(storage.getAggregates().totals())))
+                )),
+                "/changes", byMethod("/changes", Map.of(
+                        "GET", admitted(admission.read("GET", "/changes", false), metrics.route("GET", "/changes"), this::changesHandler)
+                )),
+                "/metrics", byMethod("/metrics", Map.of(
+                        "GET", metricsHandler(metrics.route("GET", "/metrics"), executor)
+                ))
+        ));
+        logger.info(String.format("listening on port %s", listener.getAddress().getPort()));
+        return listener;
+    }
+
+    public Listener runBinary(int port, int backlog, Executor executor) throws IOException {
+        var listener = new BinaryServer(storage, metrics, accessLog, admission).start(new InetSocketAddress(port), backlog, executor);
+        logger.info(String.format("binary protocol listening on port %s", listener.getAddress().getPort()));
+        return listener;
+    }
+
+    private static Handler unsupportedMethodHandler(Metrics.Route route) {
+        return exchange -> {
+            var start = System.nanoTime();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+            route.record(HttpURLConnection.HTTP_BAD_METHOD, start);
+        };
     }
 
-    private static HttpHandler byMethod(Map<String, HttpHandler> map) {
-        return exchange -> map.getOrDefault(exchange.getRequestMethod(), Server::unsupportedMethodHandler).handle(exchange);
+    private Handler byMethod(String path, Map<String, Handler> map) {
+        var unsupported = unsupportedMethodHandler(metrics.route("other", path));
+        return exchange -> map.getOrDefault(exchange.getRequestMethod(), unsupported).handle(exchange);
+    }
+
+    private static Handler byResource(String prefix, Handler account, Handler operations) {
+        return exchange -> {
+            var path = exchange.getRequestURI().getRawPath();
+            var nested = path.length() > prefix.length() + OPERATIONS.length() && path.endsWith(OPERATIONS);
+            (nested ? operations : account).handle(exchange);
+        };
+    }
+
+    private Handler admitted(Limiter limiter, Metrics.Route route, Function<Metrics.Route, Handler> factory) {
+        var handler = factory.apply(route);
+        return exchange -> {
+            var arrival = Admission.arrival();
+            if (!limiter.tryAcquire(arrival)) {
+                exchange.setResponseHeader(RETRY_AFTER, Integer.toString(Admission.RETRY_AFTER_SECONDS));
+                fail(exchange, route, System.nanoTime(), null, new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, "too many requests in flight, retry later"));
+                return;
+            }
+            try {
+                handler.handle(exchange);
+            } finally {
+                limiter.release(arrival);
+            }
+        };
     }
 
-    private static String getIdFromPath(HttpExchange exchange) {
+    private static String getIdFromPath(Exchange exchange) {
         var path = exchange.getRequestURI().getRawPath();
-        var context = exchange.getHttpContext().getPath();
+        var context = exchange.getContextPath();
         return Optional
                 .of(path)
                 .filter(p -> p.startsWith(context))
@@ -62,66 +158,431 @@ public class Server {
                 .orElseThrow();
     }
 
-    private void reply(HttpExchange exchange, int code, Object data) throws IOException {
-        logger.info(String.format(
-                "replying %s to %s %s : %s",
-                code,
-                exchange.getRequestMethod(),
-                exchange.getRequestURI(),
-                data
-        ));
-        byte[] bytes = mapper.writeValueAsBytes(data);
-        exchange.sendResponseHeaders(code, bytes.length);
-        exchange.getResponseBody().write(bytes);
-        exchange.getResponseBody().close();
+    private void reply(Exchange exchange, int code, Codec.Body body) throws IOException {
+        try {
+            exchange.sendResponseHeaders(code, body.length());
+            exchange.getResponseBody().write(body.array(), 0, body.length());
+            exchange.getResponseBody().close();
+        } finally {
+            codec.release(body);
+        }
+    }
+
+    private void reply(Exchange exchange, Metrics.Route route, long start, String id, int code, Codec.Body body) throws IOException {
+        reply(exchange, code, body);
+        route.record(code, start);
+        accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), id, code, start);
+    }
+
+    private void fail(Exchange exchange, Metrics.Route route, long start, String id, Exception e) throws IOException {
+        if (!(e instanceof ClientError)) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+        }
+        var code = Optional
+                .of(e)
+                .filter(ClientError.class::isInstance)
+                .map(ClientError.class::cast)
+                .map(ClientError::getCode)
+                .orElse(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        reply(exchange, route, start, id, code, codec.error(e.getMessage()));
+    }
+
+    private <T> Handler restHandler(Metrics.Route route, Decoder<T> decoder, BiFunction<String, T, Codec.Body> handler) {
+        return exchange -> {
+            var start = System.nanoTime();
+            String id = null;
+            Codec.Body body;
+            try {
+                id = getIdFromPath(exchange);
+                body = handler.apply(id, decoder == null ? null : decoder.decode(exchange));
+            } catch (Exception e) {
+                fail(exchange, route, start, id, e);
+                return;
+            }
+            exchange.setResponseHeader(SEQUENCE, Long.toString(storage.getSequence()));
+            reply(exchange, route, start, id, HttpURLConnection.HTTP_OK, body);
+        };
+    }
+
+    private Handler accountHandler(Metrics.Route route, Executor executor) {
+        return exchange -> {
+            var start = System.nanoTime();
+            String id = null;
+            try {
+                id = getIdFromPath(exchange);
+                var request = BalanceRequest.parse(exchange.getRequestURI().getRawQuery());
+                awaitReplication(exchange);
+                var account = storage.get(id);
+                if (request.asOf != null) {
+                    requireHistory();
+                    reply(exchange, route, start, id, HttpURLConnection.HTTP_OK, codec.balance(new Amount(account.getCurrency(), account.getBalance(request.asOf))));
+                } else if (request.waitForVersionAfter != null) {
+                    watch(exchange, route, start, account, request.waitForVersionAfter, start + TimeUnit.MILLISECONDS.toNanos(request.timeout), executor);
+                } else {
+                    balance(exchange, route, start, account, account.getState(), false);
+                }
+            } catch (Exception e) {
+                fail(exchange, route, start, id, e);
+            }
+        };
+    }
+
+    private void awaitReplication(Exchange exchange) {
+        var follower = storage.getFollower();
+        if (follower != null) {
+            exchange.setResponseHeader(REPLICATION_LAG, Long.toString(follower.getLag()));
+        }
+        var header = exchange.getRequestHeader(MIN_SEQUENCE);
+        if (header == null) {
+            return;
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid %s: %s", MIN_SEQUENCE, header));
+        }
+        if (!storage.awaitSequence(sequence)) {
+            throw new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, String.format("sequence %s is not replicated yet", sequence));
+        }
+    }
+
+    private void watch(Exchange exchange, Metrics.Route route, long start, Account account, long after, long deadline, Executor executor) throws IOException {
+        var state = account.getState();
+        var remaining = deadline - System.nanoTime();
+        if (state.getSequence() > after || remaining <= 0) {
+            balance(exchange, route, start, account, state, state.getSequence() <= after);
+            return;
+        }
+        var changed = account.changed().copy();
+        if (account.getState().getSequence() > after) {
+            changed.complete(null);
+        }
+        changed
+                .completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS)
+                .thenRunAsync(() -> {
+                    try {
+                        watch(exchange, route, start, account, after, deadline, executor);
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, e.getMessage(), e);
+                        exchange.close();
+                    }
+                }, executor);
+    }
+
+    private void balance(Exchange exchange, Metrics.Route route, long start, Account account, Account.State state, boolean unchanged) throws IOException {
+        var etag = "\"" + state.getSequence() + "\"";
+        exchange.setResponseHeader("ETag", etag);
+        if (unchanged || matches(exchange.getRequestHeader("If-None-Match"), etag)) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            exchange.close();
+            route.record(HttpURLConnection.HTTP_NOT_MODIFIED, start);
+            accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), account.getId(), HttpURLConnection.HTTP_NOT_MODIFIED, start);
+        } else {
+            reply(exchange, route, start, account.getId(), HttpURLConnection.HTTP_OK, codec.balance(new Amount(account.getCurrency(), state.getBalance())));
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (var candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Handler submitHandler(Metrics.Route route, Executor executor) {
+        var handler = restHandler(route, e -> codec.readOperation(e.getRequestBody()), this::putOperation);
+        return exchange -> {
+            if (!prefersAsync(exchange.getRequestHeader(PREFER))) {
+                handler.handle(exchange);
+                return;
+            }
+            var start = System.nanoTime();
+            String id = null;
+            try {
+                id = getIdFromPath(exchange);
+                var operation = submissions.submit(id, codec.readOperation(exchange.getRequestBody()).diff, executor);
+                if (!operation.isSettled()) {
+                    exchange.setResponseHeader("Preference-Applied", RESPOND_ASYNC);
+                    exchange.setResponseHeader("Location", exchange.getRequestURI().getRawPath());
+                    reply(exchange, route, start, id, HttpURLConnection.HTTP_ACCEPTED, codec.operation(operation));
+                } else if (operation.getError() != null) {
+                    fail(exchange, route, start, id, new ClientError(operation.getCode(), operation.getError()));
+                } else {
+                    exchange.setResponseHeader(SEQUENCE, Long.toString(storage.getSequence()));
+                    reply(exchange, route, start, id, HttpURLConnection.HTTP_OK, Codec.EMPTY);
+                }
+            } catch (Exception e) {
+                if (e instanceof ClientError && ((ClientError) e).getCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    exchange.setResponseHeader(RETRY_AFTER, Integer.toString(Admission.RETRY_AFTER_SECONDS));
+                }
+                fail(exchange, route, start, id, e);
+            }
+        };
+    }
+
+    private static boolean prefersAsync(String prefer) {
+        if (prefer == null) {
+            return false;
+        }
+        for (var preference : prefer.split("[,;]")) {
+            if (preference.trim().equalsIgnoreCase(RESPOND_ASYNC)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private <T> HttpHandler restHandler(Class<T> bodyClass, BiFunction<String, T, Map<String, String>> handler) {
+    private Handler operationHandler(Metrics.Route route, Executor executor) {
         return exchange -> {
-            logger.info(String.format("processing %s %s", exchange.getRequestMethod(), exchange.getRequestURI()));
+            var start = System.nanoTime();
+            String id = null;
             try {
-                var id = getIdFromPath(exchange);
-                var body = bodyClass == null ? null : mapper.readValue(exchange.getRequestBody(), bodyClass);
-                var result = handler.apply(id, body);
-                reply(exchange, HttpURLConnection.HTTP_OK, result);
-            } catch (JsonMappingException e) {
-                if (e.getCause() instanceof ClientError) {
-                    logger.warning(e.getCause().getMessage());
-                    reply(exchange, HttpURLConnection.HTTP_BAD_REQUEST, Map.of("error", e.getCause().getMessage()));
+                id = getIdFromPath(exchange);
+                var request = OperationRequest.parse(exchange.getRequestURI().getRawQuery());
+                var operation = storage.getOperation(id);
+                if (operation.isSettled() || request.timeout == 0) {
+                    status(exchange, route, start, operation);
                 } else {
-                    logger.warning(e.getMessage());
-                    reply(exchange, HttpURLConnection.HTTP_BAD_REQUEST, Map.of("error", "invalid json"));
+                    operation
+                            .settled()
+                            .copy()
+                            .completeOnTimeout(null, request.timeout, TimeUnit.MILLISECONDS)
+                            .thenRunAsync(() -> {
+                                try {
+                                    status(exchange, route, start, operation);
+                                } catch (Exception e) {
+                                    logger.log(Level.WARNING, e.getMessage(), e);
+                                    exchange.close();
+                                }
+                            }, executor);
                 }
             } catch (Exception e) {
-                if (!(e instanceof ClientError)) {
-                    logger.log(Level.SEVERE, e.getMessage(), e);
+                fail(exchange, route, start, id, e);
+            }
+        };
+    }
+
+    private void status(Exchange exchange, Metrics.Route route, long start, Operation operation) throws IOException {
+        exchange.setResponseHeader(SEQUENCE, Long.toString(storage.getSequence()));
+        reply(exchange, route, start, operation.getId(), HttpURLConnection.HTTP_OK, codec.operation(operation));
+    }
+
+    // Batch handlers block on their legs, so the legs run on a pool of their own and can never queue behind the handlers
+    // waiting for them.
+    private static Executor batchExecutor(int threads) {
+        var counter = new AtomicInteger();
+        var executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            var thread = new Thread(r, "batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Handler batchHandler(Metrics.Route route) {
+        return exchange -> {
+            var start = System.nanoTime();
+            exchange.setResponseHeader("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+            try (var out = codec.batchWriter(exchange.getResponseBody())) {
+                var pipeline = new Pipeline(storage, batchExecutor, batchWindow, new Pipeline.Listener() {
+                    @Override
+                    public void completed(String id, Throwable error) throws IOException {
+                        if (error == null) {
+                            out.write(id, HttpURLConnection.HTTP_OK, null);
+                        } else if (error instanceof ClientError) {
+                            out.write(id, ((ClientError) error).getCode(), error.getMessage());
+                        } else {
+                            logger.log(Level.SEVERE, error.getMessage(), error);
+                            out.write(id, HttpURLConnection.HTTP_INTERNAL_ERROR, error.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        out.flush();
+                    }
+                });
+                try (var entries = codec.batchReader(exchange.getRequestBody())) {
+                    for (BatchOperationRequest entry; (entry = entries.next()) != null; ) {
+                        if (entry.error == null) {
+                            pipeline.submit(entry.id, entry.diff);
+                        } else {
+                            pipeline.reject(entry.id, entry.error);
+                        }
+                    }
+                } catch (ClientError e) {
+                    pipeline.finish();
+                    out.write(null, e.getCode(), e.getMessage());
+                    return;
                 }
-                reply(
-                        exchange,
-                        Optional
-                                .of(e)
-                                .filter(ClientError.class::isInstance)
-                                .map(ClientError.class::cast)
-                                .map(ClientError::getCode)
-                                .orElse(HttpURLConnection.HTTP_INTERNAL_ERROR),
-                        Map.of("error", e.getMessage())
-                );
+                pipeline.finish();
+            } finally {
+                route.record(HttpURLConnection.HTTP_OK, start);
+                accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, HttpURLConnection.HTTP_OK, start);
             }
         };
     }
 
-    private Map<String, String> getAccount(String id, Void body) {
-        return Map.of("balance", storage.get(id).getBalance().toString());
+    private Handler balancesHandler(Metrics.Route route) {
+        return exchange -> {
+            var start = System.nanoTime();
+            BalanceRequest request;
+            try {
+                request = BalanceRequest.parse(exchange.getRequestURI().getRawQuery());
+                if (request.asOf != null) {
+                    requireHistory();
+                }
+            } catch (ClientError e) {
+                reply(exchange, e.getCode(), codec.error(e.getMessage()));
+                route.record(e.getCode(), start);
+                accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, e.getCode(), start);
+                return;
+            }
+            var asOf = Optional.ofNullable(request.asOf).orElseGet(System::currentTimeMillis);
+            exchange.setResponseHeader("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+            try (var out = codec.balanceWriter(exchange.getResponseBody())) {
+                for (var account : storage.getAccounts()) {
+                    out.write(account.getId(), new Amount(account.getCurrency(), account.getBalance(asOf)));
+                }
+            } finally {
+                route.record(HttpURLConnection.HTTP_OK, start);
+                accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, HttpURLConnection.HTTP_OK, start);
+            }
+        };
     }
 
-    private Map<String, String> putAccount(String id, NewAccountRequest body) {
+    private Handler changesHandler(Metrics.Route route) {
+        return exchange -> {
+            var start = System.nanoTime();
+            Changes.Cursor cursor;
+            try {
+                var request = ChangesRequest.parse(exchange.getRequestURI().getRawQuery());
+                cursor = storage.getChanges().cursor(Optional.ofNullable(request.after).orElseGet(storage::getSequence));
+            } catch (ClientError e) {
+                reply(exchange, e.getCode(), codec.error(e.getMessage()));
+                route.record(e.getCode(), start);
+                accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, e.getCode(), start);
+                return;
+            }
+            exchange.setResponseHeader("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+            try (var out = codec.changeWriter(exchange.getResponseBody())) {
+                try {
+                    while (!cursor.isClosed()) {
+                        var change = cursor.poll();
+                        if (change == null) {
+                            out.flush();
+                            change = cursor.await(HEARTBEAT, TimeUnit.MILLISECONDS);
+                        }
+                        if (change == null) {
+                            out.heartbeat();
+                        } else {
+                            out.write(change);
+                        }
+                    }
+                } catch (ClientError e) {
+                    logger.warning(String.format("disconnecting change stream consumer: %s", e.getMessage()));
+                    out.error(e.getCode(), e.getMessage());
+                }
+            } finally {
+                route.record(HttpURLConnection.HTTP_OK, start);
+                accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, HttpURLConnection.HTTP_OK, start);
+            }
+        };
+    }
+
+    private Handler metricsHandler(Metrics.Route route, Executor executor) {
+        return exchange -> {
+            var start = System.nanoTime();
+            var body = metrics.write(storage, executor, admission, submissions).getBytes(StandardCharsets.UTF_8);
+            exchange.setResponseHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.getResponseBody().close();
+            route.record(HttpURLConnection.HTTP_OK, start);
+            accessLog.record(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), null, HttpURLConnection.HTTP_OK, start);
+        };
+    }
+
+    private void requireHistory() {
+        if (!storage.keepsHistory()) {
+            throw new ClientError(HttpURLConnection.HTTP_NOT_IMPLEMENTED, "account history is not kept by this account store");
+        }
+    }
+
+    private Codec.Body getOperations(String id, HistoryRequest request) {
+        requireHistory();
+        return codec.history(storage.get(id.substring(0, id.length() - OPERATIONS.length())), request);
+    }
+
+    private Codec.Body putAccount(String id, NewAccountRequest body) {
         storage.create(id, body.currency);
-        return Map.of();
+        return Codec.EMPTY;
     }
 
-    private Map<String, String> putOperation(String id, NewOperationRequest body) {
+    private Codec.Body putOperation(String id, NewOperationRequest body) {
         storage.update(id, body.diff);
-        return Map.of();
+        return Codec.EMPTY;
+    }
+
+    private interface Decoder<T> {
+
+        T decode(Exchange exchange) throws IOException;
+
+    }
+
+    public static final class Builder {
+
+        private final Storage storage;
+        private int batchWindow = 256;
+        private AccessLog accessLog = AccessLog.getDefault();
+        private Admission admission = new Admission();
+        private int maxPending = DEFAULT_MAX_PENDING;
+        private int batchThreads = DEFAULT_BATCH_THREADS;
+
+        public Builder(Storage storage) {
+            this.storage = storage;
+        }
+
+        public Builder batchWindow(int batchWindow) {
+            this.batchWindow = batchWindow;
+            return this;
+        }
+
+        public Builder accessLog(AccessLog accessLog) {
+            this.accessLog = accessLog;
+            return this;
+        }
+
+        public Builder admission(Admission admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        public Builder maxPending(int maxPending) {
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        public Builder batchThreads(int batchThreads) {
+            this.batchThreads = batchThreads;
+            return this;
+        }
+
+        public Server build() {
+            return new Server(this);
+        }
+
     }
 
 }
@@ -0,0 +1,28 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+public interface Exchange {
+
+    String getRequestMethod();
+
+    URI getRequestURI();
+
+    String getContextPath();
+
+    String getRequestHeader(String name);
+
+    InputStream getRequestBody();
+
+    void setResponseHeader(String name, String value);
+
+    void sendResponseHeaders(int code, long length) throws IOException;
+
+    OutputStream getResponseBody();
+
+    void close();
+
+}
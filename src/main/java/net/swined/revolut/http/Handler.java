@@ -0,0 +1,10 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface Handler {
+
+    void handle(Exchange exchange) throws IOException;
+
+}
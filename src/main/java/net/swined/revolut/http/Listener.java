@@ -0,0 +1,11 @@
+package net.swined.revolut.http;
+
+import java.net.InetSocketAddress;
+
+public interface Listener {
+
+    InetSocketAddress getAddress();
+
+    void stop();
+
+}
@@ -0,0 +1,490 @@
+package net.swined.revolut.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+class NioConnection {
+
+    private static final Logger logger = Logger.getLogger(NioConnection.class.getName());
+    private static final int BUFFER_SIZE = 8 << 10;
+    private static final int MAX_HEAD_SIZE = 64 << 10;
+    private static final int MAX_LINE_SIZE = 4 << 10;
+    private static final int MAX_BUFFERED_BODY = 256 << 10;
+    private static final int MAX_BUFFERED_OUTPUT = 256 << 10;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_DATA = 1;
+    private static final int CHUNK_END = 2;
+    private static final int TRAILER = 3;
+
+    private final NioServer server;
+    private final NioServer.Loop loop;
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> out = new ArrayDeque<>();
+    private final NioExchange.Output output = new NioExchange.Output();
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private volatile NioExchange exchange;
+    private boolean chunked;
+    private int chunkState;
+    private long remaining;
+    private boolean bodyDone;
+    private boolean responseDone;
+    private boolean inputShutdown;
+    private boolean closing;
+    private long pending;
+    private boolean closed;
+
+    NioConnection(NioServer server, NioServer.Loop loop, SocketChannel channel) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    NioExchange.Output getOutput() {
+        return output;
+    }
+
+    void read() throws IOException {
+        if (channel.read(in) < 0) {
+            inputShutdown = true;
+        }
+        process();
+    }
+
+    private void process() throws IOException {
+        in.flip();
+        try {
+            while (true) {
+                if (exchange == null) {
+                    if (closing || !parseHead()) {
+                        break;
+                    }
+                } else if (!bodyDone) {
+                    decodeBody();
+                    if (!bodyDone) {
+                        break;
+                    }
+                } else if (responseDone && !closing) {
+                    exchange = null;
+                    responseDone = false;
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            in.compact();
+        }
+        if (exchange == null && !closing && !in.hasRemaining()) {
+            if (in.capacity() < MAX_HEAD_SIZE) {
+                in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+            } else {
+                reject(431, "Request Header Fields Too Large");
+            }
+        }
+        if (inputShutdown) {
+            closing = true;
+            if (exchange == null || responseDone) {
+                closeWhenFlushed();
+            } else if (!bodyDone) {
+                exchange.getBody().fail(new EOFException("unexpected end of request body"));
+                bodyDone = true;
+            }
+        }
+        updateInterest();
+    }
+
+    private int findHeadEnd() {
+        var array = in.array();
+        for (int i = in.position(), end = in.limit() - 3; i < end; i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean parseHead() throws IOException {
+        while (in.hasRemaining() && (in.get(in.position()) == '\r' || in.get(in.position()) == '\n')) {
+            in.get();
+        }
+        var end = findHeadEnd();
+        if (end < 0) {
+            return false;
+        }
+        var lines = new String(in.array(), in.position(), end - in.position(), StandardCharsets.ISO_8859_1).split("\r\n");
+        in.position(end + 4);
+        var request = lines[0].split(" ");
+        if (request.length != 3 || !request[2].startsWith("HTTP/1.")) {
+            reject(400, "Bad Request");
+            return false;
+        }
+        var headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            var colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                reject(400, "Bad Request");
+                return false;
+            }
+            headers.merge(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim(), (a, b) -> a + "," + b);
+        }
+        URI uri;
+        try {
+            uri = new URI(request[1]);
+        } catch (URISyntaxException e) {
+            reject(400, "Bad Request");
+            return false;
+        }
+        if (!framing(headers)) {
+            reject(400, "Bad Request");
+            return false;
+        }
+        var exchange = new NioExchange(this, request[0], uri, headers, keepAlive(request[2], headers), new Body());
+        this.exchange = exchange;
+        if (!exchange.isKeepAlive()) {
+            closing = true;
+        }
+        if (bodyDone) {
+            exchange.getBody().end();
+        } else if ("100-continue".equalsIgnoreCase(headers.get("Expect"))) {
+            enqueue(ByteBuffer.wrap(CONTINUE));
+        }
+        server.dispatch(exchange);
+        return true;
+    }
+
+    private static boolean keepAlive(String version, Map<String, String> headers) {
+        var tokens = Arrays.asList(headers.getOrDefault("Connection", "").toLowerCase().split("\\s*,\\s*"));
+        return version.equals("HTTP/1.0") ? tokens.contains("keep-alive") : !tokens.contains("close");
+    }
+
+    private boolean framing(Map<String, String> headers) {
+        var encoding = headers.get("Transfer-Encoding");
+        var length = headers.get("Content-Length");
+        chunked = false;
+        remaining = 0;
+        if (encoding != null) {
+            if (!encoding.toLowerCase().endsWith("chunked")) {
+                return false;
+            }
+            chunked = true;
+            chunkState = CHUNK_SIZE;
+        } else if (length != null) {
+            try {
+                remaining = Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (remaining < 0) {
+                return false;
+            }
+        }
+        bodyDone = !chunked && remaining == 0;
+        return true;
+    }
+
+    private void decodeBody() throws IOException {
+        var body = exchange.getBody();
+        while (!bodyDone && in.hasRemaining() && !body.full()) {
+            if (!chunked || chunkState == CHUNK_DATA) {
+                var length = (int) Math.min(remaining, in.remaining());
+                body.push(in, length);
+                remaining -= length;
+                if (remaining == 0) {
+                    if (chunked) {
+                        chunkState = CHUNK_END;
+                    } else {
+                        endBody();
+                    }
+                }
+            } else {
+                var line = readLine();
+                if (line == null) {
+                    return;
+                } else if (chunkState == CHUNK_SIZE) {
+                    var extension = line.indexOf(';');
+                    try {
+                        remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("invalid chunk size: " + line);
+                    }
+                    chunkState = remaining == 0 ? TRAILER : CHUNK_DATA;
+                } else if (chunkState == CHUNK_END) {
+                    if (!line.isEmpty()) {
+                        throw new IOException("invalid chunk end");
+                    }
+                    chunkState = CHUNK_SIZE;
+                } else if (line.isEmpty()) {
+                    endBody();
+                }
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        var array = in.array();
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (array[i] == '\n') {
+                var end = i > in.position() && array[i - 1] == '\r' ? i - 1 : i;
+                var line = new String(array, in.position(), end - in.position(), StandardCharsets.ISO_8859_1);
+                in.position(i + 1);
+                return line;
+            }
+        }
+        if (in.remaining() > MAX_LINE_SIZE) {
+            throw new IOException("line too long");
+        }
+        return null;
+    }
+
+    private void endBody() {
+        bodyDone = true;
+        exchange.getBody().end();
+    }
+
+    private void reject(int code, String reason) {
+        logger.fine(() -> String.format("rejecting request from %s: %s", channel.socket().getRemoteSocketAddress(), reason));
+        enqueue(ByteBuffer.wrap(String.format(
+                "HTTP/1.1 %s %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+                code,
+                reason
+        ).getBytes(StandardCharsets.US_ASCII)));
+        closing = true;
+        closeWhenFlushed();
+    }
+
+    void completed(NioExchange exchange) {
+        loop.execute(() -> {
+            if (this.exchange != exchange) {
+                return;
+            }
+            responseDone = true;
+            exchange.getBody().discard();
+            if (closing) {
+                closeWhenFlushed();
+            }
+            try {
+                process();
+            } catch (IOException | RuntimeException e) {
+                logger.fine(() -> "closing connection: " + e.getMessage());
+                close();
+            }
+        });
+    }
+
+    private void resume() {
+        loop.execute(() -> {
+            try {
+                process();
+            } catch (IOException | RuntimeException e) {
+                logger.fine(() -> "closing connection: " + e.getMessage());
+                close();
+            }
+        });
+    }
+
+    private synchronized void enqueue(ByteBuffer buffer) {
+        if (!closed) {
+            out.add(buffer);
+            pending += buffer.remaining();
+        }
+    }
+
+    // The buffers can be reused once this returns: whatever the socket does not take right away is copied to the queue.
+    synchronized void send(ByteBuffer... buffers) throws IOException {
+        while (pending > MAX_BUFFERED_OUTPUT && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (closed) {
+            throw new IOException("connection closed");
+        }
+        if (out.isEmpty()) {
+            try {
+                channel.write(buffers);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        var remaining = 0;
+        for (var buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        if (remaining == 0) {
+            return;
+        }
+        var copy = ByteBuffer.allocate(remaining);
+        for (var buffer : buffers) {
+            copy.put(buffer);
+        }
+        out.add(copy.flip());
+        pending += remaining;
+        loop.execute(this::updateInterest);
+    }
+
+    synchronized void write() throws IOException {
+        while (!out.isEmpty()) {
+            var buffer = out.peek();
+            pending -= channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            out.poll();
+        }
+        notifyAll();
+        if (out.isEmpty() && closing && (exchange == null || responseDone)) {
+            close();
+        }
+        updateInterest();
+    }
+
+    private synchronized void closeWhenFlushed() {
+        if (out.isEmpty()) {
+            close();
+        }
+    }
+
+    private synchronized void updateInterest() {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        var reading = !inputShutdown && in.hasRemaining() && (exchange != null && !bodyDone ? !exchange.getBody().full() : !closing);
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (out.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.clear();
+        pending = 0;
+        notifyAll();
+        var exchange = this.exchange;
+        if (exchange != null) {
+            exchange.getBody().fail(new IOException("connection closed"));
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.fine(() -> "close failed: " + e.getMessage());
+        }
+    }
+
+    class Body extends InputStream {
+
+        private final Queue<ByteBuffer> chunks = new ArrayDeque<>();
+        private int available;
+        private boolean end;
+        private boolean discard;
+        private IOException failure;
+
+        synchronized void push(ByteBuffer source, int length) {
+            if (!discard) {
+                var chunk = ByteBuffer.allocate(length);
+                chunk.put(source.array(), source.position(), length).flip();
+                chunks.add(chunk);
+                available += length;
+                notifyAll();
+            }
+            source.position(source.position() + length);
+        }
+
+        synchronized boolean full() {
+            return available >= MAX_BUFFERED_BODY;
+        }
+
+        synchronized void end() {
+            end = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            if (!end) {
+                failure = e;
+                notifyAll();
+            }
+        }
+
+        synchronized void discard() {
+            discard = true;
+            chunks.clear();
+            available = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (chunks.isEmpty()) {
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                } else if (end || discard) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            var full = full();
+            var read = 0;
+            while (read < len && !chunks.isEmpty()) {
+                var chunk = chunks.peek();
+                var length = Math.min(chunk.remaining(), len - read);
+                chunk.get(b, off + read, length);
+                read += length;
+                if (!chunk.hasRemaining()) {
+                    chunks.poll();
+                }
+            }
+            available -= read;
+            if (full && !full()) {
+                resume();
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized int available() {
+            return available;
+        }
+
+    }
+
+}
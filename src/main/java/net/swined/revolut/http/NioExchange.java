@@ -0,0 +1,293 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+class NioExchange implements Exchange {
+
+    private static final Logger logger = Logger.getLogger(NioExchange.class.getName());
+    private static final int BUFFER_SIZE = 8 << 10;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final NioConnection connection;
+    private final String method;
+    private final URI uri;
+    private final Map<String, String> headers;
+    private final boolean keepAlive;
+    private final NioConnection.Body body;
+    private final Map<String, String> responseHeaders = new LinkedHashMap<>();
+    private String contextPath = "";
+    private ResponseBody response;
+
+    NioExchange(NioConnection connection, String method, URI uri, Map<String, String> headers, boolean keepAlive, NioConnection.Body body) {
+        this.connection = connection;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.keepAlive = keepAlive;
+        this.body = body;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    NioConnection.Body getBody() {
+        return body;
+    }
+
+    void setContextPath(String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    void abort() {
+        connection.close();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return body;
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        responseHeaders.put(name, value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+        if (response != null) {
+            throw new IOException("headers already sent");
+        }
+        var head = new StringBuilder(128)
+                .append("HTTP/1.1 ")
+                .append(code)
+                .append(' ')
+                .append(reason(code))
+                .append("\r\n");
+        responseHeaders.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        if (length == 0) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Content-Length: ").append(Math.max(0, length)).append("\r\n");
+        }
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        response = new ResponseBody(connection.getOutput().head(head), length);
+        if (length < 0) {
+            response.close();
+        }
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        if (response == null) {
+            throw new IllegalStateException("response headers are not sent");
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        if (response == null) {
+            abort();
+        } else {
+            try {
+                response.close();
+            } catch (IOException e) {
+                logger.fine(() -> "closing response failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 202:
+                return "Accepted";
+            case 204:
+                return "No Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 409:
+                return "Conflict";
+            case 412:
+                return "Precondition Failed";
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    static final class Output {
+
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private final byte[] data = new byte[BUFFER_SIZE];
+        private final ByteBuffer body = ByteBuffer.wrap(data);
+        private final ByteBuffer prefix = ByteBuffer.allocate(16);
+        private final ByteBuffer suffix = ByteBuffer.allocate(CRLF.length + LAST_CHUNK.length);
+        private final ByteBuffer[] packet = new ByteBuffer[4];
+        private final ByteBuffer empty = ByteBuffer.allocate(0);
+        private ByteBuffer head = ByteBuffer.allocate(1 << 10);
+
+        ByteBuffer head(CharSequence text) {
+            if (head.capacity() < text.length()) {
+                head = ByteBuffer.allocate(Integer.highestOneBit(text.length()) << 1);
+            }
+            head.clear();
+            for (int i = 0; i < text.length(); i++) {
+                head.put((byte) text.charAt(i));
+            }
+            return head.flip();
+        }
+
+        private static void putHex(ByteBuffer buffer, int value) {
+            for (int shift = (31 - Integer.numberOfLeadingZeros(value)) & ~3; shift >= 0; shift -= 4) {
+                buffer.put(HEX[(value >>> shift) & 0xf]);
+            }
+        }
+
+    }
+
+    private class ResponseBody extends OutputStream {
+
+        private final Output output = connection.getOutput();
+        private final byte[] buffer = output.data;
+        private final boolean chunked;
+        private ByteBuffer head;
+        private long remaining;
+        private int count;
+        private boolean closed;
+
+        ResponseBody(ByteBuffer head, long length) {
+            this.head = head;
+            this.chunked = length == 0;
+            this.remaining = Math.max(0, length);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (closed) {
+                throw new IOException("response body is closed");
+            }
+            if (!chunked) {
+                if (remaining == 0) {
+                    throw new IOException("too many bytes to write");
+                }
+                remaining--;
+            }
+            if (count == buffer.length) {
+                send(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("response body is closed");
+            }
+            if (!chunked) {
+                if (len > remaining) {
+                    throw new IOException("too many bytes to write");
+                }
+                remaining -= len;
+            }
+            while (len > 0) {
+                if (count == buffer.length) {
+                    send(false);
+                }
+                var length = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (!closed && (count > 0 || head != null)) {
+                send(false);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (remaining > 0) {
+                abort();
+                throw new IOException("insufficient bytes written");
+            }
+            send(true);
+            connection.completed(NioExchange.this);
+        }
+
+        private void send(boolean last) throws IOException {
+            var prefix = output.prefix.clear();
+            var suffix = output.suffix.clear();
+            if (chunked && count > 0) {
+                Output.putHex(prefix, count);
+                prefix.put(CRLF);
+                suffix.put(CRLF);
+            }
+            if (chunked && last) {
+                suffix.put(LAST_CHUNK);
+            }
+            var packet = output.packet;
+            packet[0] = head == null ? output.empty : head;
+            packet[1] = prefix.flip();
+            packet[2] = output.body.clear().limit(count);
+            packet[3] = suffix.flip();
+            head = null;
+            count = 0;
+            connection.send(packet);
+        }
+
+    }
+
+}
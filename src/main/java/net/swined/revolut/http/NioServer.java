@@ -0,0 +1,203 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+class NioServer implements Listener {
+
+    private static final Logger logger = Logger.getLogger(NioServer.class.getName());
+    private static final byte[] NOT_FOUND = "<h1>404 Not Found</h1>No context found for request".getBytes(StandardCharsets.UTF_8);
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final Executor executor;
+    private final List<Map.Entry<String, Handler>> contexts;
+    private int next;
+
+    NioServer(InetSocketAddress address, int backlog, int selectors, Executor executor, Map<String, Handler> contexts) throws IOException {
+        this.executor = executor;
+        this.contexts = contexts.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<String, Handler> e) -> e.getKey().length()).reversed())
+                .collect(Collectors.toList());
+        this.server = ServerSocketChannel.open();
+        this.server.configureBlocking(false);
+        this.server.bind(address, backlog);
+        this.loops = new Loop[selectors];
+        for (int i = 0; i < selectors; i++) {
+            this.loops[i] = new Loop(i);
+        }
+        this.server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (var loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (var loop : loops) {
+            loop.stop();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel channel; (channel = server.accept()) != null; ) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            var loop = loops[next++ % loops.length];
+            var accepted = channel;
+            loop.execute(() -> loop.register(accepted));
+        }
+    }
+
+    void dispatch(NioExchange exchange) {
+        var path = exchange.getRequestURI().getRawPath();
+        var handler = contexts.stream()
+                .filter(e -> path != null && path.startsWith(e.getKey()))
+                .findFirst()
+                .map(e -> {
+                    exchange.setContextPath(e.getKey());
+                    return e.getValue();
+                })
+                .orElse(NioServer::notFound);
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.handle(exchange);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, String.format("%s %s failed: %s", exchange.getRequestMethod(), exchange.getRequestURI(), e.getMessage()), e);
+                    exchange.abort();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning(String.format("%s %s rejected: %s", exchange.getRequestMethod(), exchange.getRequestURI(), e.getMessage()));
+            exchange.abort();
+        }
+    }
+
+    private static void notFound(Exchange exchange) throws IOException {
+        exchange.setResponseHeader("Content-Type", "text/html");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, NOT_FOUND.length);
+        exchange.getResponseBody().write(NOT_FOUND);
+        exchange.getResponseBody().close();
+    }
+
+    class Loop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "http-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                var connection = new NioConnection(NioServer.this, this, channel);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    for (Runnable task; (task = tasks.poll()) != null; ) {
+                        task.run();
+                    }
+                    var keys = selector.selectedKeys();
+                    for (var key : keys) {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            var connection = (NioConnection) key.attachment();
+                            try {
+                                if (key.isReadable()) {
+                                    connection.read();
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    connection.write();
+                                }
+                            } catch (IOException | RuntimeException e) {
+                                logger.fine(() -> "closing connection: " + e.getMessage());
+                                connection.close();
+                            }
+                        }
+                    }
+                    keys.clear();
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+            for (var key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+
+        private void stop() {
+            running = false;
+            selector.wakeup();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
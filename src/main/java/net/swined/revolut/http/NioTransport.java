@@ -0,0 +1,25 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class NioTransport implements Transport {
+
+    private final int selectors;
+
+    public NioTransport() {
+        this(1);
+    }
+
+    public NioTransport(int selectors) {
+        this.selectors = selectors;
+    }
+
+    @Override
+    public Listener start(InetSocketAddress address, int backlog, Executor executor, Map<String, Handler> contexts) throws IOException {
+        return new NioServer(address, backlog, selectors, executor, contexts);
+    }
+
+}
@@ -0,0 +1,95 @@
+package net.swined.revolut.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class SunTransport implements Transport {
+
+    @Override
+    public Listener start(InetSocketAddress address, int backlog, Executor executor, Map<String, Handler> contexts) throws IOException {
+        var server = HttpServer.create(address, backlog);
+        contexts.forEach((path, handler) -> server.createContext(path, exchange -> handler.handle(new SunExchange(exchange))));
+        server.setExecutor(executor);
+        server.start();
+        return new Listener() {
+            @Override
+            public InetSocketAddress getAddress() {
+                return server.getAddress();
+            }
+
+            @Override
+            public void stop() {
+                server.stop(0);
+            }
+        };
+    }
+
+    private static class SunExchange implements Exchange {
+
+        private final HttpExchange exchange;
+
+        SunExchange(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return exchange.getRequestURI();
+        }
+
+        @Override
+        public String getContextPath() {
+            return exchange.getHttpContext().getPath();
+        }
+
+        @Override
+        public String getRequestHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return exchange.getRequestBody();
+        }
+
+        @Override
+        public void setResponseHeader(String name, String value) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // the exchange is finished right away, and the connection is dropped unless the request is consumed
+                exchange.getRequestBody().close();
+            }
+            exchange.sendResponseHeaders(code, length);
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return exchange.getResponseBody();
+        }
+
+        @Override
+        public void close() {
+            exchange.close();
+        }
+
+    }
+
+}
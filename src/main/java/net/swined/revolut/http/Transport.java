@@ -0,0 +1,12 @@
+package net.swined.revolut.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public interface Transport {
+
+    Listener start(InetSocketAddress address, int backlog, Executor executor, Map<String, Handler> contexts) throws IOException;
+
+}
@@ -0,0 +1,62 @@
+package net.swined.revolut.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Timer {
+
+    private static final long[] BOUNDS = {
+            1_000, 2_500, 5_000,
+            10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000,
+            10_000_000, 25_000_000, 50_000_000,
+            100_000_000, 250_000_000, 500_000_000,
+            1_000_000_000, 2_500_000_000L, 5_000_000_000L,
+            10_000_000_000L
+    };
+    private static final String[] LABELS = new String[BOUNDS.length + 1];
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sum = new LongAdder();
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            LABELS[i] = Exposition.seconds(BOUNDS[i]);
+        }
+        LABELS[BOUNDS.length] = "+Inf";
+    }
+
+    public Timer() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        var i = 0;
+        while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sum.add(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (var bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public void write(StringBuilder out, String name, String labels) {
+        var prefix = labels.isEmpty() ? "" : labels + ",";
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+            Exposition.sample(out, name + "_bucket", prefix + "le=\"" + LABELS[i] + "\"", count);
+        }
+        Exposition.sample(out, name + "_sum", labels, Exposition.seconds(sum.sum()));
+        Exposition.sample(out, name + "_count", labels, count);
+    }
+
+}
@@ -0,0 +1,70 @@
+package net.swined.revolut.request;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+public class BalanceRequest {
+
+    public static final long DEFAULT_TIMEOUT = 30_000;
+    public static final long MAX_TIMEOUT = 60_000;
+    public final Long asOf;
+    public final Long waitForVersionAfter;
+    public final long timeout;
+
+    public BalanceRequest(Long asOf) {
+        this(asOf, null, DEFAULT_TIMEOUT);
+    }
+
+    public BalanceRequest(Long asOf, Long waitForVersionAfter, long timeout) {
+        if (timeout < 0 || timeout > MAX_TIMEOUT) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("timeout must be between 0 and %s", MAX_TIMEOUT));
+        }
+        this.asOf = asOf;
+        this.waitForVersionAfter = waitForVersionAfter;
+        this.timeout = timeout;
+    }
+
+    public static BalanceRequest parse(String query) {
+        Long asOf = null;
+        Long waitForVersionAfter = null;
+        var timeout = DEFAULT_TIMEOUT;
+        if (query != null && !query.isEmpty()) {
+            for (var parameter : query.split("&")) {
+                var separator = parameter.indexOf('=');
+                var name = separator < 0 ? parameter : parameter.substring(0, separator);
+                var value = separator < 0 ? "" : parameter.substring(separator + 1);
+                if (name.equals("asOf")) {
+                    asOf = parseTime(value);
+                } else if (name.equals("waitForVersionAfter")) {
+                    waitForVersionAfter = parseLong(name, value);
+                } else if (name.equals("timeout")) {
+                    timeout = parseLong(name, value);
+                }
+            }
+        }
+        return new BalanceRequest(asOf, waitForVersionAfter, timeout);
+    }
+
+    private static long parseTime(String value) {
+        try {
+            if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(value);
+            } else {
+                return Instant.parse(value).toEpochMilli();
+            }
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid asOf: %s", value));
+        }
+    }
+
+    private static long parseLong(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid %s: %s", name, value));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.swined.revolut.request;
+
+import net.swined.revolut.ClientError;
+import net.swined.revolut.storage.Diff;
+
+public class BatchOperationRequest {
+
+    public final String id;
+    public final Diff diff;
+    public final ClientError error;
+
+    public BatchOperationRequest(String id, Diff diff, ClientError error) {
+        this.id = id;
+        this.diff = diff;
+        this.error = error;
+    }
+}
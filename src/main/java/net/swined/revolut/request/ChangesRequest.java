@@ -0,0 +1,37 @@
+package net.swined.revolut.request;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+
+public class ChangesRequest {
+
+    public final Long after;
+
+    public ChangesRequest(Long after) {
+        if (after != null && after < 0) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "after must not be negative");
+        }
+        this.after = after;
+    }
+
+    public static ChangesRequest parse(String query) {
+        Long after = null;
+        if (query != null && !query.isEmpty()) {
+            for (var parameter : query.split("&")) {
+                var separator = parameter.indexOf('=');
+                var name = separator < 0 ? parameter : parameter.substring(0, separator);
+                var value = separator < 0 ? "" : parameter.substring(separator + 1);
+                if (name.equals("after")) {
+                    try {
+                        after = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid after: %s", value));
+                    }
+                }
+            }
+        }
+        return new ChangesRequest(after);
+    }
+
+}
@@ -0,0 +1,50 @@
+package net.swined.revolut.request;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+
+public class HistoryRequest {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    public final int after;
+    public final int limit;
+
+    public HistoryRequest(int after, int limit) {
+        if (after < 0) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "after must not be negative");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("limit must be between 1 and %s", MAX_LIMIT));
+        }
+        this.after = after;
+        this.limit = limit;
+    }
+
+    public static HistoryRequest parse(String query) {
+        var after = 0;
+        var limit = DEFAULT_LIMIT;
+        if (query != null && !query.isEmpty()) {
+            for (var parameter : query.split("&")) {
+                var separator = parameter.indexOf('=');
+                var name = separator < 0 ? parameter : parameter.substring(0, separator);
+                var value = separator < 0 ? "" : parameter.substring(separator + 1);
+                if (name.equals("after")) {
+                    after = parseInt(name, value);
+                } else if (name.equals("limit")) {
+                    limit = parseInt(name, value);
+                }
+            }
+        }
+        return new HistoryRequest(after, limit);
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid %s: %s", name, value));
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package net.swined.revolut.request;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import net.swined.revolut.ClientError;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.IllegalCurrencyException;
@@ -11,7 +10,7 @@ public class NewAccountRequest {
 
     public final CurrencyUnit currency;
 
-    public NewAccountRequest(@JsonProperty("currency") String currency) {
+    public NewAccountRequest(String currency) {
         try {
             this.currency = CurrencyUnit.of(currency);
         } catch (IllegalCurrencyException e) {
@@ -1,16 +1,12 @@
 package net.swined.revolut.request;
 
-import com.fasterxml.jackson.annotation.JsonAnySetter;
-
-import java.util.HashMap;
-import java.util.Map;
+import net.swined.revolut.storage.Diff;
 
 public class NewOperationRequest {
 
-    public final Map<String, String> diff = new HashMap<>();
+    public final Diff diff;
 
-    @JsonAnySetter
-    public void addDiff(String account, String value) {
-        diff.put(account, value);
+    public NewOperationRequest(Diff diff) {
+        this.diff = diff;
     }
 }
@@ -0,0 +1,37 @@
+package net.swined.revolut.request;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+
+public class OperationRequest {
+
+    public final long timeout;
+
+    public OperationRequest(long timeout) {
+        if (timeout < 0 || timeout > BalanceRequest.MAX_TIMEOUT) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("timeout must be between 0 and %s", BalanceRequest.MAX_TIMEOUT));
+        }
+        this.timeout = timeout;
+    }
+
+    public static OperationRequest parse(String query) {
+        long timeout = 0;
+        if (query != null && !query.isEmpty()) {
+            for (var parameter : query.split("&")) {
+                var separator = parameter.indexOf('=');
+                var name = separator < 0 ? parameter : parameter.substring(0, separator);
+                var value = separator < 0 ? "" : parameter.substring(separator + 1);
+                if (name.equals("timeout")) {
+                    try {
+                        timeout = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("invalid timeout: %s", value));
+                    }
+                }
+            }
+        }
+        return new OperationRequest(timeout);
+    }
+
+}
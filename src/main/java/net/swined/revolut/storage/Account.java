@@ -1,60 +1,421 @@
 package net.swined.revolut.storage;
 
 import net.swined.revolut.ClientError;
-import org.joda.money.CurrencyMismatchException;
+import net.swined.revolut.metrics.Timer;
 import org.joda.money.CurrencyUnit;
-import org.joda.money.Money;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.HttpURLConnection;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 public class Account {
 
+    private static final VarHandle STAMP;
+    private static final VarHandle BALANCE;
+    private static final VarHandle SEQUENCE;
+    private static final VarHandle CHANGED;
+    private static final Comparator<Account> BY_LOCK = Comparator.comparingInt(Account::lockOrder).thenComparing(Account::getId);
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            STAMP = lookup.findVarHandle(Account.class, "stamp", long.class);
+            BALANCE = lookup.findVarHandle(Account.class, "balance", long.class);
+            SEQUENCE = lookup.findVarHandle(Account.class, "sequence", long.class);
+            CHANGED = lookup.findVarHandle(Account.class, "changed", CompletableFuture.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final String id;
     private final CurrencyUnit currency;
-    private Money balance;
+    private final Ledger ledger;
+    private final ReentrantLock lock;
+    private final Stripe[] stripes;
+    private volatile long stamp;
+    private volatile CompletableFuture<Void> changed;
+    private long balance;
+    private long sequence;
 
     public Account(String id, CurrencyUnit currency) {
+        this(id, currency, 0, 0, 0);
+    }
+
+    Account(String id, CurrencyUnit currency, long balance, long sequence) {
+        this(id, currency, balance, sequence, 0);
+    }
+
+    Account(String id, CurrencyUnit currency, long balance, long sequence, int stripes) {
+        this.id = Objects.requireNonNull(id);
+        this.currency = Objects.requireNonNull(currency);
+        this.ledger = new Ledger();
+        this.lock = new ReentrantLock();
+        this.balance = balance;
+        this.sequence = sequence;
+        if (stripes > 0) {
+            this.stripes = new Stripe[stripes];
+            for (int i = 0; i < stripes; i++) {
+                this.stripes[i] = new Stripe();
+            }
+        } else {
+            this.stripes = null;
+        }
+    }
+
+    Account(String id, CurrencyUnit currency, Ledger ledger) {
         this.id = Objects.requireNonNull(id);
         this.currency = Objects.requireNonNull(currency);
-        this.balance = Money.zero(currency);
+        this.ledger = ledger;
+        this.lock = null;
+        this.stripes = null;
     }
 
     public String getId() {
         return id;
     }
 
-    public synchronized Money getBalance() {
-        return balance;
+    public CurrencyUnit getCurrency() {
+        return currency;
     }
 
-    private void verify(Money diff) {
-        try {
-            if (balance.plus(diff).isNegative()) {
-                throw new ClientError(HttpURLConnection.HTTP_PRECON_FAILED, "insufficient balance");
+    public boolean isHot() {
+        return stripes != null;
+    }
+
+    public long getBalance() {
+        consolidate();
+        return (long) BALANCE.getOpaque(this);
+    }
+
+    public long getBalance(long time) {
+        return ledger.balanceAt(time, getBalance());
+    }
+
+    public State getState() {
+        consolidate();
+        while (true) {
+            var before = stamp;
+            var balance = (long) BALANCE.getOpaque(this);
+            var sequence = (long) SEQUENCE.getOpaque(this);
+            VarHandle.loadLoadFence();
+            if ((before & 1) == 0 && before == stamp) {
+                return new State(balance, sequence);
             }
-        } catch (CurrencyMismatchException e) {
-            throw new ClientError(HttpURLConnection.HTTP_PRECON_FAILED, e);
+            Thread.onSpinWait();
         }
     }
 
-    private void execute(Money diff) {
-        balance = balance.plus(diff);
+    // One future per version is shared by every watcher; callers that complete or time out their wait must copy it first.
+    public CompletableFuture<Void> changed() {
+        var future = changed;
+        if (future != null) {
+            return future;
+        }
+        future = new CompletableFuture<>();
+        var witness = (CompletableFuture<Void>) CHANGED.compareAndExchange(this, null, future);
+        return witness == null ? future : witness;
     }
 
-    public static void update(Map<Account, Money> diff) {
-        update(diff, diff.keySet().stream().sorted(Comparator.comparing(Account::getId, String::compareTo)).iterator());
+    void signal() {
+        if (changed != null) {
+            var future = (CompletableFuture<Void>) CHANGED.getAndSet(this, null);
+            if (future != null) {
+                future.complete(null);
+            }
+        }
     }
 
-    private static void update(Map<Account, Money> diff, Iterator<Account> locks) {
-        if (locks.hasNext()) {
-            synchronized (locks.next()) {
-                update(diff, locks);
+    public Ledger getLedger() {
+        consolidate();
+        return ledger;
+    }
+
+    long getSequence() {
+        var sequence = (long) SEQUENCE.getOpaque(this);
+        if (stripes != null) {
+            for (var stripe : stripes) {
+                sequence = Math.max(sequence, stripe.sequence);
             }
+        }
+        return sequence;
+    }
+
+    void consolidate() {
+        if (stripes != null) {
+            lock(false);
+            try {
+                drain();
+            } finally {
+                unlock(false);
+            }
+        }
+    }
+
+    int lockOrder() {
+        return 0;
+    }
+
+    void lock(boolean striped) {
+        if (striped) {
+            stripe().lock.lock();
         } else {
-            diff.forEach(Account::verify);
-            diff.forEach(Account::execute);
+            lock.lock();
+            if (stripes != null) {
+                for (var stripe : stripes) {
+                    stripe.lock.lock();
+                }
+            }
+        }
+    }
+
+    void unlock(boolean striped) {
+        if (striped) {
+            stripe().lock.unlock();
+        } else {
+            if (stripes != null) {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    stripes[i].lock.unlock();
+                }
+            }
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        if (stripes == null) {
+            return;
+        }
+        var heads = new int[stripes.length];
+        var pending = 0;
+        for (var stripe : stripes) {
+            pending += stripe.size;
+        }
+        if (pending == 0) {
+            return;
+        }
+        begin();
+        try {
+            for (; pending > 0; pending--) {
+                var next = -1;
+                for (int i = 0; i < stripes.length; i++) {
+                    if (heads[i] < stripes[i].size && (next < 0 || stripes[i].sequences[heads[i]] < stripes[next].sequences[heads[next]])) {
+                        next = i;
+                    }
+                }
+                var stripe = stripes[next];
+                var entry = heads[next]++;
+                var result = balance + stripe.amounts[entry];
+                BALANCE.setOpaque(this, result);
+                SEQUENCE.setOpaque(this, stripe.sequences[entry]);
+                ledger.append(stripe.ids[entry], stripe.sequences[entry], stripe.times[entry], stripe.amounts[entry], result);
+            }
+        } finally {
+            end();
+        }
+        for (var stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    private Stripe stripe() {
+        return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    }
+
+    long balance() {
+        return balance;
+    }
+
+    void verify(Amount diff) {
+        verifyCurrency(diff);
+        verifyBalance(balance(), diff.getMinor());
+    }
+
+    private void verifyCurrency(Amount diff) {
+        if (!currency.equals(diff.getCurrency())) {
+            throw new ClientError(
+                    HttpURLConnection.HTTP_PRECON_FAILED,
+                    String.format("Currencies differ: %s/%s", currency.getCode(), diff.getCurrency().getCode())
+            );
+        }
+    }
+
+    private static void verifyBalance(long balance, long diff) {
+        long result = balance + diff;
+        if (((balance ^ result) & (diff ^ result)) < 0) {
+            throw new ClientError(HttpURLConnection.HTTP_PRECON_FAILED, "balance overflow");
+        }
+        if (result < 0) {
+            throw new ClientError(HttpURLConnection.HTTP_PRECON_FAILED, "insufficient balance");
+        }
+    }
+
+    void begin() {
+        STAMP.setOpaque(this, stamp + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    void execute(String id, long time, Amount diff, long sequence) {
+        execute(id, time, diff.getMinor(), sequence);
+    }
+
+    void execute(String id, long time, long diff, long sequence) {
+        var result = balance + diff;
+        BALANCE.setOpaque(this, result);
+        SEQUENCE.setOpaque(this, sequence);
+        ledger.append(id, sequence, time, diff, result);
+    }
+
+    void end() {
+        STAMP.setVolatile(this, stamp + 1);
+        signal();
+    }
+
+    static long apply(String id, long time, Map<Account, Amount> diff, LongSupplier commit) {
+        for (var e : diff.entrySet()) {
+            e.getKey().drain();
+            e.getKey().verify(e.getValue());
+        }
+        var sequence = commit.getAsLong();
+        for (var account : diff.keySet()) {
+            account.begin();
+        }
+        try {
+            for (var e : diff.entrySet()) {
+                e.getKey().execute(id, time, e.getValue(), sequence);
+            }
+        } finally {
+            for (var account : diff.keySet()) {
+                account.end();
+            }
         }
+        return sequence;
+    }
+
+    public static long update(String id, long time, Map<Account, Amount> diff, LongSupplier commit, Timer lockWait, Timer apply) {
+        var start = System.nanoTime();
+        var size = diff.size();
+        var accounts = diff.keySet().toArray(new Account[size]);
+        Arrays.sort(accounts, BY_LOCK);
+        var amounts = new long[size];
+        var striped = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            var amount = diff.get(accounts[i]);
+            accounts[i].verifyCurrency(amount);
+            amounts[i] = amount.getMinor();
+            striped[i] = accounts[i].stripes != null && amounts[i] >= 0;
+        }
+        var locked = 0;
+        var released = 0;
+        try {
+            try {
+                for (var account : accounts) {
+                    account.lock(striped[locked]);
+                    if (striped[locked++]) {
+                        verifyBalance(account.balance() + account.stripe().balance, amounts[locked - 1]);
+                    } else {
+                        account.drain();
+                        verifyBalance(account.balance(), amounts[locked - 1]);
+                    }
+                }
+            } catch (RuntimeException e) {
+                lockWait.record(System.nanoTime() - start);
+                apply.record(0);
+                throw e;
+            }
+            var acquired = System.nanoTime();
+            lockWait.record(acquired - start);
+            try {
+                var sequence = commit.getAsLong();
+                for (int i = 0; i < size; i++) {
+                    if (!striped[i]) {
+                        accounts[i].begin();
+                    }
+                }
+                for (; released < size; released++) {
+                    var account = accounts[released];
+                    if (striped[released]) {
+                        account.stripe().append(id, sequence, time, amounts[released]);
+                    } else {
+                        try {
+                            account.execute(id, time, amounts[released], sequence);
+                        } finally {
+                            account.end();
+                        }
+                    }
+                    account.unlock(striped[released]);
+                    if (striped[released]) {
+                        account.signal();
+                    }
+                }
+                return sequence;
+            } finally {
+                apply.record(System.nanoTime() - acquired);
+            }
+        } finally {
+            for (int i = released; i < locked; i++) {
+                accounts[i].unlock(striped[i]);
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private String[] ids = new String[16];
+        private long[] sequences = new long[16];
+        private long[] times = new long[16];
+        private long[] amounts = new long[16];
+        private int size;
+        private long balance;
+        private long sequence;
+
+        void append(String id, long sequence, long time, long amount) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                sequences = Arrays.copyOf(sequences, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+            }
+            ids[size] = id;
+            sequences[size] = sequence;
+            times[size] = time;
+            amounts[size] = amount;
+            size++;
+            this.balance += amount;
+            this.sequence = sequence;
+        }
+
+        void clear() {
+            Arrays.fill(ids, 0, size, null);
+            size = 0;
+            balance = 0;
+        }
+
+    }
+
+    public static final class State {
+
+        private final long balance;
+        private final long sequence;
+
+        State(long balance, long sequence) {
+            this.balance = balance;
+            this.sequence = sequence;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
     }
 
     @Override
@@ -0,0 +1,22 @@
+package net.swined.revolut.storage;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+public interface AccountStore {
+
+    Account get(String id);
+
+    Account computeIfAbsent(String id, Function<String, Account> factory);
+
+    void put(Account account);
+
+    void clear();
+
+    int size();
+
+    Collection<Account> values();
+
+    boolean keepsHistory();
+
+}
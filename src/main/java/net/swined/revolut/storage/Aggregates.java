@@ -0,0 +1,195 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+public class Aggregates {
+
+    private static final Logger logger = Logger.getLogger(Aggregates.class.getName());
+    private final Map<String, Aggregate> aggregates = new ConcurrentSkipListMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder drifted = new LongAdder();
+    private final LongAdder inconclusive = new LongAdder();
+
+    private Aggregate get(CurrencyUnit currency) {
+        var aggregate = aggregates.get(currency.getCode());
+        return aggregate == null ? aggregates.computeIfAbsent(currency.getCode(), k -> new Aggregate(currency)) : aggregate;
+    }
+
+    void creating(CurrencyUnit currency) {
+        get(currency).startedAccounts.increment();
+    }
+
+    void created(CurrencyUnit currency) {
+        var aggregate = get(currency);
+        aggregate.accounts.increment();
+        aggregate.finishedAccounts.increment();
+    }
+
+    void applying(Map<Account, Amount> legs) {
+        for (var leg : legs.entrySet()) {
+            get(leg.getKey().getCurrency()).started.add(Math.abs(leg.getValue().getMinor()));
+        }
+    }
+
+    void applied(Map<Account, Amount> legs) {
+        for (var leg : legs.entrySet()) {
+            var aggregate = get(leg.getKey().getCurrency());
+            var amount = leg.getValue().getMinor();
+            aggregate.balance.add(amount);
+            aggregate.finished.add(Math.abs(amount));
+        }
+    }
+
+    // a rejected update moved no money, but its legs must stop counting as in flight or verify would tolerate ever more drift
+    void abandoned(Map<Account, Amount> legs) {
+        for (var leg : legs.entrySet()) {
+            get(leg.getKey().getCurrency()).finished.add(Math.abs(leg.getValue().getMinor()));
+        }
+    }
+
+    void restore(Account account) {
+        var aggregate = get(account.getCurrency());
+        var balance = account.getBalance();
+        aggregate.startedAccounts.increment();
+        aggregate.started.add(Math.abs(balance));
+        aggregate.accounts.increment();
+        aggregate.balance.add(balance);
+        aggregate.finishedAccounts.increment();
+        aggregate.finished.add(Math.abs(balance));
+    }
+
+    void clear() {
+        epoch.incrementAndGet();
+        aggregates.clear();
+    }
+
+    public List<Total> totals() {
+        var totals = new ArrayList<Total>(aggregates.size());
+        for (var aggregate : aggregates.values()) {
+            totals.add(new Total(aggregate.currency, aggregate.accounts.sum(), aggregate.balance.sum()));
+        }
+        return totals;
+    }
+
+    // Legs and creations that started before the scan ended and finished after it began are the only ones that can
+    // be counted by the aggregates but not by the scan or the other way round, so a difference beyond their sum is drift.
+    boolean verify(Iterable<Account> accounts) {
+        var epoch = this.epoch.get();
+        var before = new HashMap<String, long[]>();
+        for (var aggregate : aggregates.values()) {
+            before.put(aggregate.currency.getCode(), new long[]{
+                    aggregate.finishedAccounts.sum(),
+                    aggregate.finished.sum(),
+                    aggregate.accounts.sum(),
+                    aggregate.balance.sum()
+            });
+        }
+        var scanned = new HashMap<String, long[]>();
+        var currencies = new HashMap<String, CurrencyUnit>();
+        for (var account : accounts) {
+            var code = account.getCurrency().getCode();
+            var sums = scanned.computeIfAbsent(code, k -> new long[2]);
+            sums[0]++;
+            sums[1] += account.getBalance();
+            currencies.putIfAbsent(code, account.getCurrency());
+        }
+        var after = new HashMap<String, long[]>();
+        for (var aggregate : aggregates.values()) {
+            currencies.putIfAbsent(aggregate.currency.getCode(), aggregate.currency);
+            after.put(aggregate.currency.getCode(), new long[]{aggregate.startedAccounts.sum(), aggregate.started.sum()});
+        }
+        if (epoch != this.epoch.get()) {
+            inconclusive.increment();
+            return true;
+        }
+        var consistent = true;
+        for (var currency : currencies.values()) {
+            var code = currency.getCode();
+            var started = after.getOrDefault(code, new long[2]);
+            var counted = before.getOrDefault(code, new long[4]);
+            var sums = scanned.getOrDefault(code, new long[2]);
+            var accountsInFlight = started[0] - counted[0];
+            var balanceInFlight = started[1] - counted[1];
+            if (Math.abs(sums[0] - counted[2]) > accountsInFlight || Math.abs(sums[1] - counted[3]) > balanceInFlight) {
+                consistent = false;
+                logger.severe(String.format(
+                        "%s aggregates drifted: %s accounts and %s total kept, %s accounts and %s total scanned, %s accounts and %s in flight",
+                        code,
+                        counted[2],
+                        new Amount(currency, counted[3]),
+                        sums[0],
+                        new Amount(currency, sums[1]),
+                        accountsInFlight,
+                        new Amount(currency, balanceInFlight)
+                ));
+            }
+        }
+        (consistent ? verified : drifted).increment();
+        return consistent;
+    }
+
+    public long verified() {
+        return verified.sum();
+    }
+
+    public long drifted() {
+        return drifted.sum();
+    }
+
+    public long inconclusive() {
+        return inconclusive.sum();
+    }
+
+    public static final class Total {
+
+        private final CurrencyUnit currency;
+        private final long accounts;
+        private final long balance;
+
+        Total(CurrencyUnit currency, long accounts, long balance) {
+            this.currency = currency;
+            this.accounts = accounts;
+            this.balance = balance;
+        }
+
+        public CurrencyUnit getCurrency() {
+            return currency;
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+    }
+
+    private static final class Aggregate {
+
+        private final CurrencyUnit currency;
+        private final LongAdder accounts = new LongAdder();
+        private final LongAdder balance = new LongAdder();
+        private final LongAdder startedAccounts = new LongAdder();
+        private final LongAdder finishedAccounts = new LongAdder();
+        private final LongAdder started = new LongAdder();
+        private final LongAdder finished = new LongAdder();
+
+        Aggregate(CurrencyUnit currency) {
+            this.currency = currency;
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+import java.net.HttpURLConnection;
+import java.util.Objects;
+import java.util.Optional;
+
+public final class Amount {
+
+    private final CurrencyUnit currency;
+    private final long minor;
+
+    public Amount(CurrencyUnit currency, long minor) {
+        this.currency = Objects.requireNonNull(currency);
+        this.minor = minor;
+    }
+
+    public static Amount parse(String value) {
+        var amount = parseSimple(value);
+        return amount == null ? parseMoney(value) : amount;
+    }
+
+    private static Amount parseSimple(String value) {
+        if (value == null || value.length() < 4) {
+            return null;
+        }
+        CurrencyUnit currency;
+        try {
+            currency = CurrencyUnit.of(value.substring(0, 3));
+        } catch (RuntimeException e) {
+            return null;
+        }
+        var i = 3;
+        while (i < value.length() && value.charAt(i) == ' ') {
+            i++;
+        }
+        var negative = i < value.length() && value.charAt(i) == '-';
+        if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        long minor = 0;
+        var digits = 0;
+        var scale = -1;
+        for (; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9' && minor < Long.MAX_VALUE / 100) {
+                minor = minor * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return null;
+            }
+        }
+        scale = Math.max(scale, 0);
+        if (digits == 0 || scale > currency.getDecimalPlaces()) {
+            return null;
+        }
+        for (; scale < currency.getDecimalPlaces(); scale++) {
+            if (minor >= Long.MAX_VALUE / 100) {
+                return null;
+            }
+            minor *= 10;
+        }
+        return new Amount(currency, negative ? -minor : minor);
+    }
+
+    private static Amount parseMoney(String value) {
+        Money money;
+        try {
+            money = Money.parse(value);
+        } catch (Exception e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, e);
+        }
+        try {
+            return new Amount(money.getCurrencyUnit(), money.getAmountMinorLong());
+        } catch (ArithmeticException e) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "amount is too large: " + value);
+        }
+    }
+
+    public CurrencyUnit getCurrency() {
+        return currency;
+    }
+
+    public long getMinor() {
+        return minor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return Optional
+                .ofNullable(o)
+                .filter(Amount.class::isInstance)
+                .map(Amount.class::cast)
+                .map(that -> this.minor == that.minor && this.currency.equals(that.currency))
+                .orElse(false);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(currency, minor);
+    }
+
+    @Override
+    public String toString() {
+        var scale = currency.getDecimalPlaces();
+        var negative = minor < 0;
+        var digits = negative ? Long.toString(minor).substring(1) : Long.toString(minor);
+        var result = new StringBuilder(digits.length() + 8).append(currency.getCode()).append(' ');
+        if (negative) {
+            result.append('-');
+        }
+        for (int i = digits.length(); i <= scale; i++) {
+            result.append('0');
+        }
+        result.append(digits);
+        if (scale > 0) {
+            result.insert(result.length() - scale, '.');
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,41 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+public final class Change {
+
+    private final long sequence;
+    private final String id;
+    private final long time;
+    private final Diff diff;
+    private final CurrencyUnit currency;
+
+    Change(long sequence, String id, long time, Diff diff, CurrencyUnit currency) {
+        this.sequence = sequence;
+        this.id = id;
+        this.time = time;
+        this.diff = diff;
+        this.currency = currency;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Diff getDiff() {
+        return diff;
+    }
+
+    public CurrencyUnit getCurrency() {
+        return currency;
+    }
+
+}
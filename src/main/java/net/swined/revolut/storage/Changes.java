@@ -0,0 +1,127 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class Changes {
+
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+    private final long start;
+    private final LongAdder lagged = new LongAdder();
+    private final Set<Thread> waiting = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public Changes(int capacity, long start) {
+        var size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.start = start;
+    }
+
+    void publish(Change change) {
+        var index = (int) change.getSequence() & mask;
+        while (true) {
+            var current = ring.get(index);
+            if (current != null && current.getSequence() >= change.getSequence()) {
+                return;
+            }
+            if (ring.compareAndSet(index, current, change)) {
+                wake();
+                return;
+            }
+        }
+    }
+
+    public Cursor cursor(long after) {
+        var first = ring.get((int) (after + 1) & mask);
+        if (after < start || first != null && first.getSequence() > after + 1) {
+            throw new ClientError(HttpURLConnection.HTTP_GONE, String.format("changes after %s are no longer available", after));
+        }
+        return new Cursor(after + 1);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    public long getLagged() {
+        return lagged.sum();
+    }
+
+    void close() {
+        closed = true;
+        wake();
+    }
+
+    private void wake() {
+        if (!waiting.isEmpty()) {
+            waiting.forEach(LockSupport::unpark);
+        }
+    }
+
+    public class Cursor {
+
+        private long next;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        public Change poll() {
+            var change = ring.get((int) next & mask);
+            if (change == null || change.getSequence() < next) {
+                return null;
+            }
+            if (change.getSequence() > next) {
+                lagged.increment();
+                throw new ClientError(HttpURLConnection.HTTP_GONE, String.format("changes after %s are no longer available", next - 1));
+            }
+            next++;
+            return change;
+        }
+
+        public Change await(long timeout, TimeUnit unit) {
+            var deadline = System.nanoTime() + unit.toNanos(timeout);
+            var thread = Thread.currentThread();
+            waiting.add(thread);
+            try {
+                while (!closed) {
+                    var change = poll();
+                    if (change != null) {
+                        return change;
+                    }
+                    var remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                return null;
+            } finally {
+                waiting.remove(thread);
+            }
+        }
+
+        public long getSequence() {
+            return next - 1;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+    }
+
+}
@@ -0,0 +1,419 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+public class CompactAccountStore implements AccountStore {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final Ledger NO_HISTORY = new Ledger();
+    private static final int BALANCE = 0;
+    private static final int SEQUENCE = 8;
+    private static final int STAMP = 16;
+    private static final int META = 24;
+    private static final int RECORD_SIZE = 32;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    private static final int ID_PAGE_BITS = 22;
+    private static final int ID_PAGE_SIZE = 1 << ID_PAGE_BITS;
+    private static final int MAX_ID_LENGTH = 0xffff;
+    private static final int MAX_SLOTS = 1 << 27;
+    private static final int LOCKS = 1 << 12;
+    private final StampedLock index = new StampedLock();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+    private final Map<Integer, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+    private final Map<CurrencyUnit, Integer> currencyCodes = new HashMap<>();
+    private final int initialSlots;
+    private volatile CurrencyUnit[] currencies = new CurrencyUnit[0];
+    private volatile ByteBuffer slots;
+    private volatile ByteBuffer[] records;
+    private volatile ByteBuffer[] ids;
+    private volatile int size;
+    private int idOffset;
+
+    public CompactAccountStore(int expected) {
+        var slots = Integer.highestOneBit((int) Math.min(MAX_SLOTS, Math.max(2, expected * 4L / 3) - 1)) << 1;
+        this.initialSlots = Math.min(MAX_SLOTS, slots);
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        reset();
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    private static int hash(String id) {
+        var hash = id.hashCode() * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int offset(int record) {
+        return (record & PAGE_MASK) * RECORD_SIZE;
+    }
+
+    private void reset() {
+        slots = allocate(initialSlots * Long.BYTES);
+        records = new ByteBuffer[0];
+        ids = new ByteBuffer[0];
+        idOffset = ID_PAGE_SIZE;
+        size = 0;
+    }
+
+    private int find(ByteBuffer slots, byte[] id, int hash) {
+        var mask = slots.capacity() / Long.BYTES - 1;
+        for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            var entry = slots.getLong(i * Long.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, id)) {
+                return (int) entry - 1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int record, byte[] id) {
+        var meta = records[record >>> PAGE_BITS].getLong(offset(record) + META);
+        var page = ids[(int) (meta >>> (16 + ID_PAGE_BITS))];
+        var offset = (int) (meta >>> 16) & (ID_PAGE_SIZE - 1);
+        if (Short.toUnsignedInt(page.getShort(offset)) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (page.get(offset + 2 + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lookup(byte[] id, int hash) {
+        var stamp = index.tryOptimisticRead();
+        int record;
+        try {
+            record = find(slots, id, hash);
+        } catch (RuntimeException e) {
+            // a concurrent insert can be observed half way, validation below fails then
+            record = -1;
+        }
+        if (!index.validate(stamp)) {
+            stamp = index.readLock();
+            try {
+                record = find(slots, id, hash);
+            } finally {
+                index.unlockRead(stamp);
+            }
+        }
+        return record;
+    }
+
+    private void insert(ByteBuffer slots, int hash, int record) {
+        var mask = slots.capacity() / Long.BYTES - 1;
+        var i = hash & mask;
+        while (slots.getLong(i * Long.BYTES) != 0) {
+            i = (i + 1) & mask;
+        }
+        slots.putLong(i * Long.BYTES, (long) hash << 32 | (record + 1));
+    }
+
+    private void reserve() {
+        var capacity = slots.capacity() / Long.BYTES;
+        if ((size + 1) * 4L <= capacity * 3L) {
+            return;
+        }
+        if (capacity >= MAX_SLOTS) {
+            throw new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, String.format("account store is full at %s accounts", size));
+        }
+        var resized = allocate(capacity * 2 * Long.BYTES);
+        for (int i = 0; i < capacity; i++) {
+            var entry = slots.getLong(i * Long.BYTES);
+            if (entry != 0) {
+                insert(resized, (int) (entry >>> 32), (int) entry - 1);
+            }
+        }
+        slots = resized;
+    }
+
+    private int currency(CurrencyUnit currency) {
+        return currencyCodes.computeIfAbsent(currency, c -> {
+            var code = currencies.length;
+            var grown = Arrays.copyOf(currencies, code + 1);
+            grown[code] = c;
+            currencies = grown;
+            return code;
+        });
+    }
+
+    private int append(byte[] id, CurrencyUnit currency, long balance, long sequence) {
+        var record = size;
+        if ((record >>> PAGE_BITS) == records.length) {
+            var grown = Arrays.copyOf(records, records.length + 1);
+            grown[records.length] = allocate(RECORD_SIZE << PAGE_BITS);
+            records = grown;
+        }
+        if (idOffset + 2 + id.length > ID_PAGE_SIZE) {
+            var grown = Arrays.copyOf(ids, ids.length + 1);
+            grown[ids.length] = allocate(ID_PAGE_SIZE);
+            ids = grown;
+            idOffset = 0;
+        }
+        var idPage = ids[ids.length - 1];
+        idPage.putShort(idOffset, (short) id.length);
+        idPage.duplicate().position(idOffset + 2).put(id);
+        var page = records[record >>> PAGE_BITS];
+        var offset = offset(record);
+        page.putLong(offset + BALANCE, balance);
+        page.putLong(offset + SEQUENCE, sequence);
+        page.putLong(offset + STAMP, 0);
+        page.putLong(offset + META, (long) (ids.length - 1) << (16 + ID_PAGE_BITS) | (long) idOffset << 16 | currency(currency));
+        idOffset += 2 + id.length;
+        size = record + 1;
+        return record;
+    }
+
+    private static byte[] encode(String id) {
+        var bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_LENGTH) {
+            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("account id is longer than %s bytes", MAX_ID_LENGTH));
+        }
+        return bytes;
+    }
+
+    private View view(String id, int record) {
+        var meta = records[record >>> PAGE_BITS].getLong(offset(record) + META);
+        return new View(id, currencies[(int) meta & 0xffff], record);
+    }
+
+    private View view(int record) {
+        var meta = records[record >>> PAGE_BITS].getLong(offset(record) + META);
+        var page = ids[(int) (meta >>> (16 + ID_PAGE_BITS))];
+        var offset = (int) (meta >>> 16) & (ID_PAGE_SIZE - 1);
+        var id = new byte[Short.toUnsignedInt(page.getShort(offset))];
+        page.duplicate().position(offset + 2).get(id);
+        return new View(new String(id, StandardCharsets.UTF_8), currencies[(int) meta & 0xffff], record);
+    }
+
+    @Override
+    public Account get(String id) {
+        var bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_LENGTH) {
+            return null;
+        }
+        var record = lookup(bytes, hash(id));
+        return record < 0 ? null : view(id, record);
+    }
+
+    @Override
+    public Account computeIfAbsent(String id, Function<String, Account> factory) {
+        var bytes = encode(id);
+        var hash = hash(id);
+        var record = lookup(bytes, hash);
+        if (record >= 0) {
+            return view(id, record);
+        }
+        var stamp = index.writeLock();
+        try {
+            record = find(slots, bytes, hash);
+            if (record < 0) {
+                reserve();
+                var account = factory.apply(id);
+                record = append(bytes, account.getCurrency(), account.getBalance(), account.getSequence());
+                insert(slots, hash, record);
+            }
+            return view(id, record);
+        } finally {
+            index.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void put(Account account) {
+        var bytes = encode(account.getId());
+        var hash = hash(account.getId());
+        var state = account.getState();
+        var stamp = index.writeLock();
+        try {
+            var record = find(slots, bytes, hash);
+            if (record < 0) {
+                reserve();
+                insert(slots, hash, append(bytes, account.getCurrency(), state.getBalance(), state.getSequence()));
+            } else {
+                var page = records[record >>> PAGE_BITS];
+                var offset = offset(record);
+                page.putLong(offset + BALANCE, state.getBalance());
+                page.putLong(offset + SEQUENCE, state.getSequence());
+                page.putLong(offset + META, page.getLong(offset + META) & ~0xffffL | currency(account.getCurrency()));
+            }
+        } finally {
+            index.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        var stamp = index.writeLock();
+        try {
+            reset();
+        } finally {
+            index.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Collection<Account> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Account> iterator() {
+                var size = CompactAccountStore.this.size;
+                return new Iterator<>() {
+
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Account next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return view(next++);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean keepsHistory() {
+        return false;
+    }
+
+    private final class View extends Account {
+
+        private final int record;
+        private final ByteBuffer page;
+        private final int offset;
+
+        View(String id, CurrencyUnit currency, int record) {
+            super(id, currency, NO_HISTORY);
+            this.record = record;
+            this.page = records[record >>> PAGE_BITS];
+            this.offset = offset(record);
+        }
+
+        @Override
+        public long getBalance() {
+            return (long) LONGS.getOpaque(page, offset + BALANCE);
+        }
+
+        @Override
+        public State getState() {
+            while (true) {
+                var before = (long) LONGS.getVolatile(page, offset + STAMP);
+                var balance = (long) LONGS.getOpaque(page, offset + BALANCE);
+                var sequence = (long) LONGS.getOpaque(page, offset + SEQUENCE);
+                VarHandle.loadLoadFence();
+                if ((before & 1) == 0 && before == (long) LONGS.getOpaque(page, offset + STAMP)) {
+                    return new State(balance, sequence);
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> changed() {
+            return waiters.computeIfAbsent(record, k -> new CompletableFuture<>());
+        }
+
+        @Override
+        void signal() {
+            if (!waiters.isEmpty()) {
+                var future = waiters.remove(record);
+                if (future != null) {
+                    future.complete(null);
+                }
+            }
+        }
+
+        @Override
+        long getSequence() {
+            return (long) LONGS.getOpaque(page, offset + SEQUENCE);
+        }
+
+        @Override
+        int lockOrder() {
+            return record & (LOCKS - 1);
+        }
+
+        @Override
+        void lock(boolean striped) {
+            locks[lockOrder()].lock();
+        }
+
+        @Override
+        void unlock(boolean striped) {
+            locks[lockOrder()].unlock();
+        }
+
+        @Override
+        long balance() {
+            return page.getLong(offset + BALANCE);
+        }
+
+        @Override
+        void begin() {
+            LONGS.setOpaque(page, offset + STAMP, page.getLong(offset + STAMP) + 1);
+            VarHandle.storeStoreFence();
+        }
+
+        @Override
+        void execute(String id, long time, long diff, long sequence) {
+            LONGS.setOpaque(page, offset + BALANCE, page.getLong(offset + BALANCE) + diff);
+            LONGS.setOpaque(page, offset + SEQUENCE, sequence);
+        }
+
+        @Override
+        void end() {
+            LONGS.setVolatile(page, offset + STAMP, page.getLong(offset + STAMP) + 1);
+            signal();
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+public final class Diff {
+
+    public static final int MAX_LEGS = 10_000;
+    private final String[] accounts;
+    private final Amount[] amounts;
+    private final long fingerprint;
+
+    Diff(String[] accounts, Amount[] amounts, long fingerprint) {
+        this.accounts = accounts;
+        this.amounts = amounts;
+        this.fingerprint = fingerprint;
+    }
+
+    public static Diff of(Map<String, String> diff) {
+        var builder = new Builder();
+        diff.forEach(builder::add);
+        return builder.build();
+    }
+
+    public int size() {
+        return accounts.length;
+    }
+
+    public String getAccount(int leg) {
+        return accounts[leg];
+    }
+
+    public Amount getAmount(int leg) {
+        return amounts[leg];
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    private static long hash(String value) {
+        var hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    // hashes the parsed amount, so "USD 10" and "USD 10.00" fingerprint alike whether they arrive as text or binary
+    private static long leg(String account, Amount amount) {
+        return mix(hash(account) * 0x9e3779b97f4a7c15L ^ mix(hash(amount.getCurrency().getCode()) + amount.getMinor()));
+    }
+
+    @Override
+    public String toString() {
+        var joiner = new StringJoiner(", ", "{", "}");
+        for (int i = 0; i < accounts.length; i++) {
+            joiner.add(accounts[i] + "=" + amounts[i]);
+        }
+        return joiner.toString();
+    }
+
+    public static final class Builder {
+
+        private static final int INDEXED = 16;
+        private String[] accounts = new String[4];
+        private Amount[] amounts = new Amount[4];
+        private long[] hashes = new long[4];
+        private int size;
+        private Map<String, Integer> index;
+
+        public Builder add(String account, String amount) {
+            return add(account, Amount.parse(amount));
+        }
+
+        public Builder add(String account, Amount amount) {
+            return add(account, amount, leg(account, amount));
+        }
+
+        private Builder add(String account, Amount parsed, long hash) {
+            var existing = indexOf(account);
+            if (existing >= 0) {
+                amounts[existing] = parsed;
+                hashes[existing] = hash;
+                return this;
+            }
+            if (size == MAX_LEGS) {
+                throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, String.format("too many legs, at most %s are allowed", MAX_LEGS));
+            }
+            if (size == accounts.length) {
+                accounts = Arrays.copyOf(accounts, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            accounts[size] = account;
+            amounts[size] = parsed;
+            hashes[size] = hash;
+            if (index != null) {
+                index.put(account, size);
+            } else if (size == INDEXED) {
+                index = new HashMap<>();
+                for (int i = 0; i <= size; i++) {
+                    index.put(accounts[i], i);
+                }
+            }
+            size++;
+            return this;
+        }
+
+        private int indexOf(String account) {
+            if (index != null) {
+                return index.getOrDefault(account, -1);
+            }
+            for (int i = 0; i < size; i++) {
+                if (accounts[i].equals(account)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public Diff build() {
+            long fingerprint = size;
+            for (int i = 0; i < size; i++) {
+                fingerprint += hashes[i];
+            }
+            return new Diff(Arrays.copyOf(accounts, size), Arrays.copyOf(amounts, size), mix(fingerprint));
+        }
+
+    }
+
+}
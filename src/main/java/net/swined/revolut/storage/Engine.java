@@ -0,0 +1,20 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.metrics.Timer;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+public interface Engine extends Closeable {
+
+    long update(String id, long time, Map<Account, Amount> diff, LongSupplier commit);
+
+    Timer getLockWait();
+
+    Timer getApply();
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,365 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+public class FileJournal implements Journal {
+
+    private static final Logger logger = Logger.getLogger(FileJournal.class.getName());
+    private static final byte CREATE = 1;
+    private static final byte OPERATION = 2;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final long commitWindow;
+    private final Thread flusher;
+    private final Object synced = new Object();
+    private final Buffer record = new Buffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private final Map<String, CurrencyUnit> currencies = new HashMap<>();
+    private Buffer pending = new Buffer();
+    private Buffer flushing = new Buffer();
+    private long appended;
+    private long flushed;
+    private boolean closed;
+    private volatile long durable;
+    private volatile IOException failure;
+    private FileChannel segment;
+
+    public FileJournal(Path dir, long segmentSize, Duration commitWindow) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentSize = segmentSize;
+        this.commitWindow = commitWindow.toNanos();
+        this.flusher = new Thread(this::flush, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    @Override
+    public long create(String id, CurrencyUnit currency) {
+        return append(CREATE, out -> {
+            out.writeUTF(id);
+            out.writeUTF(currency.getCode());
+        });
+    }
+
+    @Override
+    public long operation(String id, long time, Diff diff) {
+        return append(OPERATION, out -> {
+            out.writeUTF(id);
+            out.writeLong(time);
+            out.writeLong(diff.getFingerprint());
+            out.writeInt(diff.size());
+            for (int i = 0; i < diff.size(); i++) {
+                var amount = diff.getAmount(i);
+                out.writeUTF(diff.getAccount(i));
+                out.writeUTF(amount.getCurrency().getCode());
+                out.writeLong(amount.getMinor());
+            }
+        });
+    }
+
+    @Override
+    public synchronized long appended() {
+        return appended;
+    }
+
+    private synchronized long append(byte type, Encoder encoder) {
+        if (closed) {
+            throw new IllegalStateException("journal is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        var sequence = appended + 1;
+        try {
+            record.reset();
+            recordOut.writeLong(sequence);
+            recordOut.writeByte(type);
+            encoder.encode(recordOut);
+            crc.reset();
+            crc.update(record.view());
+            pending.writeInt(record.size());
+            pending.writeInt((int) crc.getValue());
+            record.writeTo(pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        appended = sequence;
+        notifyAll();
+        return sequence;
+    }
+
+    @Override
+    public void sync(long sequence) {
+        if (durable >= sequence) {
+            return;
+        }
+        synchronized (synced) {
+            while (durable < sequence && failure == null) {
+                try {
+                    synced.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for journal sync", e);
+                }
+            }
+        }
+        if (durable < sequence) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private void flush() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (appended == flushed && !closed) {
+                        wait();
+                    }
+                    if (appended == flushed) {
+                        return;
+                    }
+                }
+                if (commitWindow > 0) {
+                    LockSupport.parkNanos(commitWindow);
+                }
+                long first;
+                long last;
+                synchronized (this) {
+                    var batch = pending;
+                    pending = flushing;
+                    flushing = batch;
+                    first = flushed + 1;
+                    last = appended;
+                    flushed = appended;
+                }
+                write(first);
+                flushing.reset();
+                durable = last;
+                synchronized (synced) {
+                    synced.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "journal write failed, refusing further writes", e);
+            failure = e;
+            synchronized (synced) {
+                synced.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(long first) throws IOException {
+        if (segment == null || segment.position() >= segmentSize) {
+            if (segment != null) {
+                segment.close();
+            }
+            segment = FileChannel.open(
+                    dir.resolve(String.format("%020d.log", first)),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE
+            );
+            try (var dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                dirChannel.force(true);
+            } catch (IOException e) {
+                logger.fine("directory fsync is not supported: " + e.getMessage());
+            }
+        }
+        var buffer = flushing.view();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files
+                    .filter(f -> f.getFileName().toString().endsWith(".log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long firstSequence(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - ".log".length()));
+    }
+
+    @Override
+    public synchronized void replay(long after, Replay replay) {
+        if (flusher.isAlive()) {
+            throw new IllegalStateException("journal is already open for writing");
+        }
+        appended = after;
+        try {
+            var segments = segments();
+            for (int i = 0; i < segments.size(); i++) {
+                if (i < segments.size() - 1 && firstSequence(segments.get(i + 1)) <= after + 1) {
+                    continue;
+                }
+                var valid = replay(segments.get(i), after, replay);
+                if (valid < Files.size(segments.get(i))) {
+                    if (i < segments.size() - 1) {
+                        throw new IllegalStateException("corrupt journal segment " + segments.get(i));
+                    }
+                    logger.warning(String.format("truncating torn tail of %s at %s", segments.get(i), valid));
+                    try (var channel = FileChannel.open(segments.get(i), StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                        channel.force(true);
+                    }
+                }
+                if (valid == 0 && i == segments.size() - 1) {
+                    Files.delete(segments.get(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        flushed = appended;
+        durable = appended;
+        flusher.start();
+        logger.info(String.format("journal %s opened at sequence %s", dir, appended));
+    }
+
+    @Override
+    public void truncate(long upTo) {
+        try {
+            var segments = segments();
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (firstSequence(segments.get(i + 1)) <= upTo + 1) {
+                    Files.delete(segments.get(i));
+                    logger.info(String.format("deleted journal segment %s", segments.get(i)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long replay(Path file, long after, Replay replay) throws IOException {
+        long valid = 0;
+        var size = Files.size(file);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (size - valid >= 8) {
+                var length = in.readInt();
+                var checksum = in.readInt();
+                if (length < 9 || length > size - valid - 8) {
+                    break;
+                }
+                var sequence = in.readLong();
+                if (sequence <= after) {
+                    for (int skipped = 8; skipped < length; ) {
+                        skipped += in.skipBytes(length - skipped);
+                    }
+                    valid += 8 + length;
+                    continue;
+                }
+                var payload = new byte[length];
+                writeLong(payload, sequence);
+                in.readFully(payload, 8, length - 8);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                decode(new DataInputStream(new ByteArrayInputStream(payload)), replay);
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+
+    private static void writeLong(byte[] bytes, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private void decode(DataInputStream in, Replay replay) throws IOException {
+        var sequence = in.readLong();
+        var type = in.readByte();
+        switch (type) {
+            case CREATE:
+                replay.create(sequence, in.readUTF(), currencies.computeIfAbsent(in.readUTF(), CurrencyUnit::of));
+                break;
+            case OPERATION:
+                replay.operation(sequence, in.readUTF(), in.readLong(), readDiff(in));
+                break;
+            default:
+                throw new IllegalStateException("unknown journal record type " + type);
+        }
+        appended = sequence;
+    }
+
+    private Diff readDiff(DataInputStream in) throws IOException {
+        var fingerprint = in.readLong();
+        var size = in.readInt();
+        var accounts = new String[size];
+        var amounts = new Amount[size];
+        for (int i = 0; i < size; i++) {
+            accounts[i] = in.readUTF();
+            amounts[i] = new Amount(currencies.computeIfAbsent(in.readUTF(), CurrencyUnit::of), in.readLong());
+        }
+        return new Diff(accounts, amounts, fingerprint);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    private interface Encoder {
+
+        void encode(DataOutputStream out) throws IOException;
+
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,207 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+public class Follower implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(Follower.class.getName());
+    private static final long RETRY_INTERVAL = 1_000;
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+    private final Storage storage;
+    private final InetSocketAddress leader;
+    private final long readTimeout;
+    private final Thread thread;
+    private final HashMap<String, CurrencyUnit> currencies = new HashMap<>();
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile long sequence;
+    private volatile long leaderSequence;
+    private volatile long caughtUp = System.currentTimeMillis();
+
+    public Follower(Storage storage, InetSocketAddress leader, long readTimeout) {
+        this.storage = storage;
+        this.leader = leader;
+        this.readTimeout = readTimeout;
+        storage.follow(this);
+        this.thread = new Thread(this::run, "replication-follower");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public InetSocketAddress getLeader() {
+        return leader;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getLag() {
+        if (connected && sequence >= leaderSequence) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - caughtUp);
+    }
+
+    public boolean await(long sequence) {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout);
+        while (this.sequence < sequence) {
+            var remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, POLL_INTERVAL));
+        }
+        return true;
+    }
+
+    private void run() {
+        while (!closed) {
+            try (var socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(leader, (int) RETRY_INTERVAL);
+                socket.setSoTimeout((int) (Leader.HEARTBEAT_INTERVAL * 10));
+                socket.setTcpNoDelay(true);
+                var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeLong(sequence);
+                out.flush();
+                connected = true;
+                logger.info(String.format("following %s after sequence %s", leader, sequence));
+                replicate(new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16)));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warning(String.format("replication from %s interrupted: %s", leader, e));
+                }
+            } finally {
+                connected = false;
+            }
+            if (!closed) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL));
+            }
+        }
+    }
+
+    private void replicate(DataInputStream in) throws IOException {
+        while (true) {
+            var type = in.readByte();
+            switch (type) {
+                case Leader.SNAPSHOT:
+                    restore(in);
+                    break;
+                case Leader.CREATE: {
+                    var sequence = in.readLong();
+                    var id = in.readUTF();
+                    var time = in.readLong();
+                    storage.replicate(new Change(sequence, id, time, null, currency(in.readUTF())));
+                    applied(sequence);
+                    break;
+                }
+                case Leader.OPERATION: {
+                    var sequence = in.readLong();
+                    var id = in.readUTF();
+                    var time = in.readLong();
+                    var size = in.readInt();
+                    var accounts = new String[size];
+                    var amounts = new Amount[size];
+                    for (int i = 0; i < size; i++) {
+                        accounts[i] = in.readUTF();
+                        amounts[i] = new Amount(currency(in.readUTF()), in.readLong());
+                    }
+                    storage.replicate(new Change(sequence, id, time, new Diff(accounts, amounts, 0), null));
+                    applied(sequence);
+                    break;
+                }
+                case Leader.HEARTBEAT:
+                    leaderSequence = in.readLong();
+                    applied(sequence);
+                    break;
+                default:
+                    throw new IOException("unknown replication record type " + type);
+            }
+        }
+    }
+
+    private void restore(DataInputStream in) throws IOException {
+        var snapshot = in.readLong();
+        if (snapshot < sequence) {
+            logger.warning(String.format("leader %s is behind at sequence %s, discarding replicated state up to sequence %s", leader, snapshot, sequence));
+            storage.clear();
+        }
+        Account account = null;
+        while (true) {
+            var type = in.readByte();
+            if (type == Leader.END) {
+                break;
+            } else if (type == Leader.ACCOUNT) {
+                if (account != null) {
+                    storage.restore(account);
+                }
+                var id = in.readUTF();
+                var currency = currency(in.readUTF());
+                var balance = in.readLong();
+                account = storage.newAccount(id, currency, balance, in.readLong());
+            } else if (type == Leader.LEDGER && account != null) {
+                var id = in.readUTF();
+                var entrySequence = in.readLong();
+                var time = in.readLong();
+                var amount = in.readLong();
+                account.getLedger().append(id, entrySequence, time, amount, in.readLong());
+            } else {
+                throw new IOException("unknown snapshot record type " + type);
+            }
+        }
+        if (account != null) {
+            storage.restore(account);
+        }
+        storage.rewind(snapshot);
+        applied(snapshot);
+    }
+
+    private CurrencyUnit currency(String code) {
+        return currencies.computeIfAbsent(code, CurrencyUnit::of);
+    }
+
+    private void applied(long sequence) {
+        this.sequence = sequence;
+        if (sequence >= leaderSequence) {
+            caughtUp = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        var socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.fine(() -> "closing leader connection failed: " + e.getMessage());
+            }
+        }
+        try {
+            thread.join(RETRY_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
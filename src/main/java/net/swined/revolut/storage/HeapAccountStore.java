@@ -0,0 +1,48 @@
+package net.swined.revolut.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class HeapAccountStore implements AccountStore {
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    @Override
+    public Account get(String id) {
+        return accounts.get(id);
+    }
+
+    @Override
+    public Account computeIfAbsent(String id, Function<String, Account> factory) {
+        return accounts.computeIfAbsent(id, factory);
+    }
+
+    @Override
+    public void put(Account account) {
+        accounts.put(account.getId(), account);
+    }
+
+    @Override
+    public void clear() {
+        accounts.clear();
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public Collection<Account> values() {
+        return Collections.unmodifiableCollection(accounts.values());
+    }
+
+    @Override
+    public boolean keepsHistory() {
+        return true;
+    }
+
+}
@@ -0,0 +1,32 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.io.Closeable;
+
+public interface Journal extends Closeable {
+
+    long create(String id, CurrencyUnit currency);
+
+    long operation(String id, long time, Diff diff);
+
+    long appended();
+
+    void sync(long sequence);
+
+    void replay(long after, Replay replay);
+
+    void truncate(long upTo);
+
+    @Override
+    void close();
+
+    interface Replay {
+
+        void create(long sequence, String id, CurrencyUnit currency);
+
+        void operation(long sequence, String id, long time, Diff diff);
+
+    }
+
+}
@@ -0,0 +1,186 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class Leader implements Closeable {
+
+    static final byte SNAPSHOT = 1;
+    static final byte ACCOUNT = 2;
+    static final byte LEDGER = 3;
+    static final byte END = 4;
+    static final byte CREATE = 5;
+    static final byte OPERATION = 6;
+    static final byte HEARTBEAT = 7;
+    static final long HEARTBEAT_INTERVAL = 1_000;
+    private static final Logger logger = Logger.getLogger(Leader.class.getName());
+    private static final long CATCH_UP_TIMEOUT = 10_000;
+    private final Storage storage;
+    private final ServerSocket server;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public Leader(Storage storage, InetSocketAddress address) throws IOException {
+        this.storage = storage;
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(address);
+        var acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info(String.format("accepting followers on port %s", server.getLocalPort()));
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var socket = server.accept();
+                socket.setTcpNoDelay(true);
+                followers.add(socket);
+                var thread = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warning(String.format("accepting follower failed: %s", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            var after = in.readLong();
+            Changes.Cursor cursor;
+            try {
+                if (after > storage.getSequence()) {
+                    throw new ClientError(HttpURLConnection.HTTP_GONE, String.format("follower is ahead at sequence %s", after));
+                }
+                cursor = storage.getChanges().cursor(after);
+                logger.info(String.format("follower %s resumed after sequence %s", socket.getRemoteSocketAddress(), after));
+            } catch (ClientError e) {
+                cursor = snapshot(out);
+                logger.info(String.format("follower %s bootstrapped from snapshot at sequence %s", socket.getRemoteSocketAddress(), cursor.getSequence()));
+            }
+            stream(cursor, out);
+        } catch (IOException | ClientError e) {
+            if (!closed) {
+                logger.warning(String.format("disconnecting follower %s: %s", socket.getRemoteSocketAddress(), e.getMessage()));
+            }
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private Changes.Cursor snapshot(DataOutputStream out) throws IOException {
+        var changes = storage.getChanges();
+        var sequence = storage.getSequence();
+        var cursor = changes.cursor(Math.max(changes.getStart(), sequence - changes.getCapacity() / 2));
+        // a change is published once its operation is fully applied, so after this every account reflects all changes up to sequence
+        while (cursor.getSequence() < sequence) {
+            if (cursor.await(CATCH_UP_TIMEOUT, TimeUnit.MILLISECONDS) == null) {
+                throw new IOException(String.format("changes up to sequence %s were not published in time", sequence));
+            }
+        }
+        out.writeByte(SNAPSHOT);
+        out.writeLong(sequence);
+        for (var account : storage.getAccounts()) {
+            var state = account.getState();
+            out.writeByte(ACCOUNT);
+            out.writeUTF(account.getId());
+            out.writeUTF(account.getCurrency().getCode());
+            out.writeLong(state.getBalance());
+            out.writeLong(state.getSequence());
+            account.getLedger().read(0, Integer.MAX_VALUE, state.getSequence(), (id, entrySequence, time, amount, balance) -> {
+                out.writeByte(LEDGER);
+                out.writeUTF(id);
+                out.writeLong(entrySequence);
+                out.writeLong(time);
+                out.writeLong(amount);
+                out.writeLong(balance);
+            });
+        }
+        out.writeByte(END);
+        return cursor;
+    }
+
+    private void stream(Changes.Cursor cursor, DataOutputStream out) throws IOException {
+        while (!cursor.isClosed()) {
+            var change = cursor.poll();
+            if (change == null) {
+                out.writeByte(HEARTBEAT);
+                out.writeLong(storage.getSequence());
+                out.flush();
+                change = cursor.await(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            if (change != null) {
+                write(change, out);
+            }
+        }
+    }
+
+    private static void write(Change change, DataOutputStream out) throws IOException {
+        var diff = change.getDiff();
+        if (diff == null) {
+            out.writeByte(CREATE);
+            out.writeLong(change.getSequence());
+            out.writeUTF(change.getId());
+            out.writeLong(change.getTime());
+            out.writeUTF(change.getCurrency().getCode());
+        } else {
+            out.writeByte(OPERATION);
+            out.writeLong(change.getSequence());
+            out.writeUTF(change.getId());
+            out.writeLong(change.getTime());
+            out.writeInt(diff.size());
+            for (int i = 0; i < diff.size(); i++) {
+                var amount = diff.getAmount(i);
+                out.writeUTF(diff.getAccount(i));
+                out.writeUTF(amount.getCurrency().getCode());
+                out.writeLong(amount.getMinor());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.warning(String.format("closing replication socket failed: %s", e.getMessage()));
+        }
+        for (var follower : followers) {
+            try {
+                follower.close();
+            } catch (IOException e) {
+                logger.fine(() -> "closing follower connection failed: " + e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package net.swined.revolut.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public final class Ledger {
+
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 4;
+    private volatile Chunk[] chunks = new Chunk[1];
+    private volatile int size;
+
+    void append(String id, long sequence, long time, long amount, long balance) {
+        var position = size;
+        var index = position >>> CHUNK_BITS;
+        var chunks = this.chunks;
+        if (index == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        var offset = position & CHUNK_MASK;
+        if (chunks[index] == null) {
+            chunks[index] = new Chunk(index == 0 ? INITIAL_CAPACITY : CHUNK_SIZE);
+            this.chunks = chunks;
+        } else if (offset == chunks[index].ids.length) {
+            chunks[index] = chunks[index].grow();
+            this.chunks = chunks;
+        }
+        var chunk = chunks[index];
+        chunk.ids[offset] = id;
+        chunk.sequences[offset] = sequence;
+        chunk.times[offset] = position == 0 ? time : Math.max(time, time(chunks, position - 1));
+        chunk.amounts[offset] = amount;
+        chunk.balances[offset] = balance;
+        size = position + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long time(Chunk[] chunks, int position) {
+        return chunks[position >>> CHUNK_BITS].times[position & CHUNK_MASK];
+    }
+
+    public long balanceAt(long time, long current) {
+        var size = this.size;
+        if (size == 0) {
+            return current;
+        }
+        var chunks = this.chunks;
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            if (time(chunks, middle) <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0) {
+            return chunks[0].balances[0] - chunks[0].amounts[0];
+        } else {
+            return chunks[high >>> CHUNK_BITS].balances[high & CHUNK_MASK];
+        }
+    }
+
+    public int read(int from, int limit, Visitor visitor) throws IOException {
+        return read(from, limit, Long.MAX_VALUE, visitor);
+    }
+
+    int read(int from, int limit, long sequence, Visitor visitor) throws IOException {
+        var size = this.size;
+        var chunks = this.chunks;
+        var read = 0;
+        for (int position = Math.max(0, from); position < size && read < limit; position++, read++) {
+            var chunk = chunks[position >>> CHUNK_BITS];
+            var offset = position & CHUNK_MASK;
+            if (chunk.sequences[offset] > sequence) {
+                break;
+            }
+            visitor.visit(chunk.ids[offset], chunk.sequences[offset], chunk.times[offset], chunk.amounts[offset], chunk.balances[offset]);
+        }
+        return read;
+    }
+
+    public interface Visitor {
+
+        void visit(String id, long sequence, long time, long amount, long balance) throws IOException;
+
+    }
+
+    // Most accounts have a handful of entries, so the first chunk starts small and is copied into one twice as large
+    // whenever it fills up, until it reaches the full size.
+    private static final class Chunk {
+
+        private final String[] ids;
+        private final long[] sequences;
+        private final long[] times;
+        private final long[] amounts;
+        private final long[] balances;
+
+        Chunk(int capacity) {
+            this(new String[capacity], new long[capacity], new long[capacity], new long[capacity], new long[capacity]);
+        }
+
+        private Chunk(String[] ids, long[] sequences, long[] times, long[] amounts, long[] balances) {
+            this.ids = ids;
+            this.sequences = sequences;
+            this.times = times;
+            this.amounts = amounts;
+            this.balances = balances;
+        }
+
+        Chunk grow() {
+            var capacity = Math.min(CHUNK_SIZE, ids.length * 2);
+            return new Chunk(
+                    Arrays.copyOf(ids, capacity),
+                    Arrays.copyOf(sequences, capacity),
+                    Arrays.copyOf(times, capacity),
+                    Arrays.copyOf(amounts, capacity),
+                    Arrays.copyOf(balances, capacity)
+            );
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.metrics.Timer;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+public class LockingEngine implements Engine {
+
+    private final Timer lockWait = new Timer();
+    private final Timer apply = new Timer();
+
+    @Override
+    public long update(String id, long time, Map<Account, Amount> diff, LongSupplier commit) {
+        return Account.update(id, time, diff, commit, lockWait, apply);
+    }
+
+    @Override
+    public Timer getLockWait() {
+        return lockWait;
+    }
+
+    @Override
+    public Timer getApply() {
+        return apply;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,43 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MemoryJournal implements Journal {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public long create(String id, CurrencyUnit currency) {
+        return sequence.incrementAndGet();
+    }
+
+    @Override
+    public long operation(String id, long time, Diff diff) {
+        return sequence.incrementAndGet();
+    }
+
+    @Override
+    public long appended() {
+        return sequence.get();
+    }
+
+    @Override
+    public void sync(long sequence) {
+    }
+
+    @Override
+    public void replay(long after, Replay replay) {
+        sequence.set(after);
+    }
+
+    @Override
+    public void truncate(long upTo) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -1,56 +1,159 @@
 package net.swined.revolut.storage;
 
 import net.swined.revolut.ClientError;
-import org.joda.money.Money;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.HttpURLConnection;
-import java.util.Map;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.LongSupplier;
 
 public class Operation {
 
+    private static final VarHandle SETTLED;
     private final String id;
-    private final Map<String, String> diff;
-    private boolean done;
-    private RuntimeException error;
+    private final long fingerprint;
+    private Diff diff;
+    private volatile boolean done;
+    private long sequence;
+    private int code;
+    private String error;
+    private volatile boolean durable;
+    private volatile CompletableFuture<Void> settled;
 
-    public Operation(String id, Map<String, String> diff) {
+    static {
+        try {
+            SETTLED = MethodHandles.lookup().findVarHandle(Operation.class, "settled", CompletableFuture.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Operation(String id, Diff diff) {
         this.id = Objects.requireNonNull(id);
         this.diff = Objects.requireNonNull(diff);
+        this.fingerprint = diff.getFingerprint();
+    }
+
+    Operation(String id, long fingerprint, long sequence) {
+        this.id = Objects.requireNonNull(id);
+        this.fingerprint = fingerprint;
+        this.done = true;
+        this.durable = true;
+        this.sequence = sequence;
+    }
+
+    public String getId() {
+        return id;
     }
 
-    private static <K, V> boolean equals(Map<K, V> dst, Map<K, V> src) {
-        return src.entrySet().stream().allMatch(e -> e.getValue().equals(dst.get(e.getKey()))) &&
-                dst.entrySet().stream().allMatch(e -> e.getValue().equals(src.get(e.getKey())));
+    long getFingerprint() {
+        return fingerprint;
     }
 
-    private Money parseMoney(String value) {
+    boolean isDone() {
+        return done;
+    }
+
+    public synchronized long getSequence() {
+        return error == null ? sequence : 0;
+    }
+
+    public synchronized int getCode() {
+        return code;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public boolean isSettled() {
+        return durable;
+    }
+
+    public CompletableFuture<Void> settled() {
+        var future = settled;
+        if (future == null) {
+            SETTLED.compareAndSet(this, null, new CompletableFuture<Void>());
+            future = settled;
+        }
+        if (durable) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    void settle() {
+        durable = true;
+        var future = settled;
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    synchronized void fail(int code, String error) {
+        if (!done) {
+            this.code = code;
+            this.error = error;
+            diff = null;
+            done = true;
+        }
+        settle();
+    }
+
+    public long apply(Function<String, Account> accountMapper, Engine engine, Aggregates aggregates, long time, LongSupplier commit) {
+        return apply(accountMapper, engine, aggregates, time, commit, Long.MAX_VALUE);
+    }
+
+    synchronized long replay(Function<String, Account> accountMapper, Aggregates aggregates, long sequence, long time) {
         try {
-            return Money.parse(value);
-        } catch (Exception e) {
-            throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, e);
+            return apply(accountMapper, new LockingEngine(), aggregates, time, () -> sequence, sequence);
+        } finally {
+            settle();
         }
     }
 
-    public synchronized void apply(Function<String, Account> accountMapper) {
+    private synchronized long apply(Function<String, Account> accountMapper, Engine engine, Aggregates aggregates, long time, LongSupplier commit, long replayed) {
         if (!done) {
             try {
-                Account.update(diff.entrySet().stream().collect(Collectors.toMap(
-                        e -> accountMapper.apply(e.getKey()),
-                        e -> parseMoney(e.getValue())
-                )));
+                var legs = new HashMap<Account, Amount>(diff.size() * 2);
+                for (int i = 0; i < diff.size(); i++) {
+                    var account = accountMapper.apply(diff.getAccount(i));
+                    if (account.getSequence() < replayed) {
+                        legs.put(account, diff.getAmount(i));
+                    }
+                }
+                aggregates.applying(legs);
+                var applied = false;
+                try {
+                    sequence = engine.update(id, time, legs, commit);
+                    aggregates.applied(legs);
+                    applied = true;
+                } finally {
+                    if (!applied) {
+                        aggregates.abandoned(legs);
+                    }
+                }
+            } catch (ClientError e) {
+                code = e.getCode();
+                error = e.getMessage();
             } catch (RuntimeException e) {
-                error = e;
+                code = HttpURLConnection.HTTP_INTERNAL_ERROR;
+                error = e.getMessage();
+                throw e;
             } finally {
+                diff = null;
                 done = true;
             }
         }
         if (error != null) {
-            throw error;
+            throw new ClientError(code, error);
         }
+        return sequence;
     }
 
     @Override
@@ -59,17 +162,22 @@ public class Operation {
                 .ofNullable(o)
                 .filter(Operation.class::isInstance)
                 .map(Operation.class::cast)
-                .map(that -> this.id.equals(that.id) && equals(this.diff, that.diff))
+                .map(that -> this.id.equals(that.id) && this.fingerprint == that.fingerprint)
                 .orElse(false);
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, fingerprint);
+    }
+
     @Override
     public synchronized String toString() {
         return String.format(
                 "operation(id=%s, status=%s, diff=%s)",
                 id,
-                done ? error == null ? "done" : error.getMessage() : "not started",
-                diff
+                done ? error == null ? "done" : error : "not started",
+                diff == null ? String.format("%016x", fingerprint) : diff
         );
     }
 
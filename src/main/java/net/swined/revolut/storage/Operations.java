@@ -0,0 +1,171 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+public class Operations {
+
+    private static final Logger logger = Logger.getLogger(Operations.class.getName());
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Bucket[] buckets;
+    private final long width;
+    private final long maxSize;
+    private final LongSupplier clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private volatile Bucket current;
+    private int position;
+
+    public Operations() {
+        this(Duration.ofDays(1), 24, Long.MAX_VALUE);
+    }
+
+    public Operations(Duration retention, int buckets, long maxSize) {
+        this(retention, buckets, maxSize, System::currentTimeMillis);
+    }
+
+    Operations(Duration retention, int buckets, long maxSize, LongSupplier clock) {
+        this.buckets = new Bucket[buckets + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.width = Math.max(1, retention.toMillis() / buckets);
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.current = this.buckets[0];
+        this.current.epoch = clock.getAsLong() / width;
+    }
+
+    public Operation register(Operation operation) {
+        var registered = operations.compute(operation.getId(), (k, v) -> {
+            if (v == null || operation.equals(v)) {
+                return v == null ? operation : v;
+            } else {
+                throw new ClientError(HttpURLConnection.HTTP_CONFLICT, "operation mismatch");
+            }
+        });
+        if (registered == operation) {
+            misses.increment();
+            track(registered);
+        } else {
+            hits.increment();
+        }
+        return registered;
+    }
+
+    Operation get(String id) {
+        return operations.get(id);
+    }
+
+    boolean restore(Operation operation) {
+        if (operations.putIfAbsent(operation.getId(), operation) == null) {
+            track(operation);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    void forget(Operation operation) {
+        operations.remove(operation.getId(), operation);
+    }
+
+    Collection<Operation> values() {
+        return operations.values();
+    }
+
+    public long size() {
+        return operations.size();
+    }
+
+    public double hitRate() {
+        var hits = hits();
+        var total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long expired() {
+        return expired.sum();
+    }
+
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    private void track(Operation operation) {
+        var epoch = clock.getAsLong() / width;
+        var bucket = current;
+        if (bucket.epoch != epoch) {
+            bucket = advance(epoch);
+        }
+        bucket.operations.add(operation);
+        if (operations.size() > maxSize) {
+            evictOldest();
+        }
+    }
+
+    private synchronized Bucket advance(long epoch) {
+        while (current.epoch < epoch) {
+            position = (position + 1) % buckets.length;
+            var next = buckets[position];
+            expire(next, expired, -1);
+            next.epoch = Math.max(current.epoch + 1, epoch - buckets.length + 1);
+            current = next;
+        }
+        logger.fine(() -> String.format(
+                "operations: size=%s hits=%s misses=%s expired=%s evicted=%s",
+                size(),
+                hits(),
+                misses(),
+                expired(),
+                evicted()
+        ));
+        return current;
+    }
+
+    private synchronized void evictOldest() {
+        for (int i = 1; i <= buckets.length && operations.size() > maxSize; i++) {
+            expire(buckets[(position + i) % buckets.length], evicted, maxSize);
+        }
+    }
+
+    private void expire(Bucket bucket, LongAdder counter, long retain) {
+        var retained = new ConcurrentLinkedQueue<Operation>();
+        for (Operation operation; operations.size() > retain && (operation = bucket.operations.poll()) != null; ) {
+            if (!operation.isDone()) {
+                retained.add(operation);
+            } else if (operations.remove(operation.getId(), operation)) {
+                counter.increment();
+            }
+        }
+        current.operations.addAll(retained);
+    }
+
+    private static class Bucket {
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+        private volatile long epoch;
+
+    }
+
+}
@@ -0,0 +1,107 @@
+package net.swined.revolut.storage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+public class Pipeline {
+
+    private final Storage storage;
+    private final Executor executor;
+    private final int window;
+    private final Listener listener;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+    public Pipeline(Storage storage, Executor executor, int window, Listener listener) {
+        this.storage = storage;
+        this.executor = executor;
+        this.window = window;
+        this.listener = listener;
+    }
+
+    public void submit(String id, Diff diff) throws IOException {
+        while (pending.size() >= window) {
+            complete();
+        }
+        var dependencies = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < diff.size(); i++) {
+            var tail = tails.get(diff.getAccount(i));
+            if (tail != null && !tail.isDone()) {
+                dependencies.add(tail);
+            }
+        }
+        var future = CompletableFuture
+                .allOf(dependencies.toArray(CompletableFuture[]::new))
+                .handle((r, e) -> null)
+                .thenRunAsync(() -> storage.update(id, diff), executor);
+        for (int i = 0; i < diff.size(); i++) {
+            tails.put(diff.getAccount(i), future);
+        }
+        if (tails.size() > 4 * window) {
+            tails.values().removeIf(CompletableFuture::isDone);
+        }
+        add(id, future);
+    }
+
+    public void reject(String id, RuntimeException error) throws IOException {
+        while (pending.size() >= window) {
+            complete();
+        }
+        add(id, CompletableFuture.failedFuture(error));
+    }
+
+    private void add(String id, CompletableFuture<Void> future) throws IOException {
+        pending.add(new Pending(id, future));
+        while (!pending.isEmpty() && pending.element().future.isDone()) {
+            complete();
+        }
+    }
+
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            complete();
+        }
+        listener.flush();
+    }
+
+    private void complete() throws IOException {
+        var head = pending.remove();
+        if (!head.future.isDone()) {
+            listener.flush();
+        }
+        try {
+            head.future.join();
+            listener.completed(head.id, null);
+        } catch (CompletionException e) {
+            listener.completed(head.id, e.getCause());
+        }
+    }
+
+    public interface Listener {
+
+        void completed(String id, Throwable error) throws IOException;
+
+        void flush() throws IOException;
+
+    }
+
+    private static class Pending {
+
+        private final String id;
+        private final CompletableFuture<Void> future;
+
+        Pending(String id, CompletableFuture<Void> future) {
+            this.id = id;
+            this.future = future;
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ShardedEngine implements Engine {
+
+    private static final Logger logger = Logger.getLogger(ShardedEngine.class.getName());
+    private final Shard[] shards;
+    private final Timer lockWait = new Timer();
+    private final Timer apply = new Timer();
+
+    public ShardedEngine(int shards) {
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i);
+        }
+    }
+
+    private Shard shard(Account account) {
+        return shards[Math.floorMod(account.getId().hashCode(), shards.length)];
+    }
+
+    @Override
+    public long update(String id, long time, Map<Account, Amount> diff, LongSupplier commit) {
+        var legs = new HashMap<Shard, Map<Account, Amount>>();
+        diff.forEach((account, amount) -> legs.computeIfAbsent(shard(account), k -> new HashMap<>()).put(account, amount));
+        var result = new CompletableFuture<Long>();
+        var start = System.nanoTime();
+        if (legs.isEmpty()) {
+            return commit.getAsLong();
+        } else if (legs.size() == 1) {
+            var entry = legs.entrySet().iterator().next();
+            entry.getKey().submit(new Task(() -> {
+                var begin = System.nanoTime();
+                lockWait.record(begin - start);
+                try {
+                    result.complete(Account.apply(id, time, entry.getValue(), commit));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    apply.record(System.nanoTime() - begin);
+                }
+            }, result::completeExceptionally));
+        } else {
+            var transaction = new Transaction(id, time, diff, legs.size(), commit, result, start);
+            synchronized (this) {
+                legs.forEach((shard, shardDiff) -> shard.submit(new Task(() -> transaction.participate(shardDiff), transaction::abort)));
+            }
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public Timer getLockWait() {
+        return lockWait;
+    }
+
+    @Override
+    public Timer getApply() {
+        return apply;
+    }
+
+    @Override
+    public void close() {
+        for (var shard : shards) {
+            shard.stop();
+        }
+        for (var shard : shards) {
+            shard.abort();
+        }
+        for (var shard : shards) {
+            shard.join();
+        }
+    }
+
+    private class Transaction {
+
+        private final String id;
+        private final long time;
+        private final Map<Account, Amount> diff;
+        private final AtomicInteger verifying;
+        private final AtomicInteger applying;
+        private final LongSupplier commit;
+        private final CompletableFuture<Long> result;
+        private final List<Thread> waiting = new ArrayList<>();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final long start;
+        private volatile boolean decided;
+        private long sequence;
+        private long begin;
+
+        Transaction(String id, long time, Map<Account, Amount> diff, int participants, LongSupplier commit, CompletableFuture<Long> result, long start) {
+            this.id = id;
+            this.time = time;
+            this.diff = diff;
+            this.verifying = new AtomicInteger(participants);
+            this.applying = new AtomicInteger(participants);
+            this.commit = commit;
+            this.result = result;
+            this.start = start;
+        }
+
+        void participate(Map<Account, Amount> legs) {
+            try {
+                legs.forEach(Account::verify);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+            synchronized (waiting) {
+                waiting.add(Thread.currentThread());
+            }
+            if (verifying.decrementAndGet() == 0) {
+                decide();
+            } else {
+                while (!decided) {
+                    LockSupport.park(this);
+                }
+            }
+            if (failure.get() == null) {
+                legs.forEach((account, amount) -> {
+                    account.execute(id, time, amount, sequence);
+                    account.end();
+                });
+            }
+            finish();
+        }
+
+        // A participant that never ran votes against the transaction without waiting for the others, so draining a
+        // closed shard cannot block on participants queued elsewhere.
+        void abort(RuntimeException e) {
+            failure.compareAndSet(null, e);
+            if (verifying.decrementAndGet() == 0) {
+                decide();
+            }
+            finish();
+        }
+
+        private void decide() {
+            begin = System.nanoTime();
+            lockWait.record(begin - start);
+            if (failure.get() == null) {
+                try {
+                    sequence = commit.getAsLong();
+                    diff.keySet().forEach(Account::begin);
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+            decided = true;
+            synchronized (waiting) {
+                waiting.forEach(LockSupport::unpark);
+            }
+        }
+
+        private void finish() {
+            if (applying.decrementAndGet() == 0) {
+                apply.record(System.nanoTime() - begin);
+                if (failure.get() == null) {
+                    result.complete(sequence);
+                } else {
+                    result.completeExceptionally(failure.get());
+                }
+            }
+        }
+
+    }
+
+    private static class Task {
+
+        private final Runnable run;
+        private final Consumer<RuntimeException> abort;
+
+        Task(Runnable run, Consumer<RuntimeException> abort) {
+            this.run = run;
+            this.abort = abort;
+        }
+
+    }
+
+    private static class Shard {
+
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean idle;
+        private volatile boolean running = true;
+
+        Shard(int index) {
+            this.thread = new Thread(this::run, "shard-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void submit(Task task) {
+            queue.add(task);
+            if (!running) {
+                abort();
+            } else if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void run() {
+            while (running) {
+                var task = queue.poll();
+                if (task == null) {
+                    idle = true;
+                    if (queue.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    try {
+                        task.run.run();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        void abort() {
+            for (Task task; (task = queue.poll()) != null; ) {
+                task.abort.accept(new IllegalStateException("engine is closed"));
+            }
+        }
+
+        void join() {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
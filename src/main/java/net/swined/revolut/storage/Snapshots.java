@@ -0,0 +1,240 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ToIntFunction;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+public class Snapshots {
+
+    private static final Logger logger = Logger.getLogger(Snapshots.class.getName());
+    private static final long MAGIC = 0x52564c54534e4150L;
+    private static final int VERSION = 1;
+    private static final byte END = 0;
+    private static final byte ACCOUNT = 1;
+    private static final byte OPERATION = 2;
+    private static final byte LEDGER = 3;
+    private static final String SUFFIX = ".snapshot";
+    private static final int RETAINED = 2;
+
+    private final Path dir;
+
+    public Snapshots(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    private List<Path> list() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files
+                    .filter(f -> f.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequence(Path snapshot) {
+        var name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // Accounts are written live, so they may hold operations past the cut; those must be durable in the journal before the
+    // snapshot becomes visible, or a crash would recover effects that were never acknowledged and cannot be replayed.
+    public long write(long sequence, Collection<Account> accounts, Collection<Operation> operations, LongConsumer sync) throws IOException {
+        var file = dir.resolve(String.format("%020d%s", sequence, SUFFIX));
+        var tmp = dir.resolve(file.getFileName() + ".tmp");
+        var crc = new CRC32();
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var checked = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc);
+            var out = new DataOutputStream(checked);
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            var captured = sequence;
+            for (var account : accounts) {
+                var state = account.getState();
+                captured = Math.max(captured, state.getSequence());
+                out.writeByte(ACCOUNT);
+                writeString(out, account.getId());
+                writeString(out, account.getCurrency().getCode());
+                out.writeLong(state.getBalance());
+                out.writeLong(state.getSequence());
+                account.getLedger().read(0, Integer.MAX_VALUE, state.getSequence(), (id, entrySequence, time, amount, balance) -> {
+                    out.writeByte(LEDGER);
+                    writeString(out, id);
+                    out.writeLong(entrySequence);
+                    out.writeLong(time);
+                    out.writeLong(amount);
+                    out.writeLong(balance);
+                });
+            }
+            for (var operation : operations) {
+                var operationSequence = operation.getSequence();
+                if (operationSequence > 0 && operationSequence <= sequence) {
+                    out.writeByte(OPERATION);
+                    writeString(out, operation.getId());
+                    out.writeLong(operation.getFingerprint());
+                    out.writeLong(operationSequence);
+                }
+            }
+            out.writeByte(END);
+            out.flush();
+            sync.accept(captured);
+            new DataOutputStream(Channels.newOutputStream(channel)).writeInt((int) crc.getValue());
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        try (var dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            logger.fine("directory fsync is not supported: " + e.getMessage());
+        }
+        var snapshots = list();
+        for (var old : snapshots.subList(0, Math.max(0, snapshots.size() - RETAINED))) {
+            Files.delete(old);
+        }
+        return sequence(snapshots.get(Math.max(0, snapshots.size() - RETAINED)));
+    }
+
+    public long load(ToIntFunction<String> stripes, Consumer<Account> accounts, Consumer<Operation> operations) throws IOException {
+        var snapshots = list();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try (var reader = new Reader(snapshots.get(i))) {
+                if (!reader.verify()) {
+                    logger.warning(String.format("ignoring corrupt snapshot %s", snapshots.get(i)));
+                    continue;
+                }
+                if (reader.readLong() != MAGIC) {
+                    throw new IllegalStateException("unsupported snapshot format " + snapshots.get(i));
+                }
+                if (reader.readInt() != VERSION) {
+                    throw new IllegalStateException("unsupported snapshot format " + snapshots.get(i));
+                }
+                var sequence = reader.readLong();
+                var currencies = new HashMap<String, CurrencyUnit>();
+                Account account = null;
+                while (true) {
+                    var type = reader.readByte();
+                    if (type == END) {
+                        break;
+                    } else if (type == ACCOUNT) {
+                        var id = reader.readString();
+                        var currency = currencies.computeIfAbsent(reader.readString(), CurrencyUnit::of);
+                        var balance = reader.readLong();
+                        account = new Account(id, currency, balance, reader.readLong(), stripes.applyAsInt(id));
+                        accounts.accept(account);
+                    } else if (type == LEDGER && account != null) {
+                        var id = reader.readString();
+                        var entrySequence = reader.readLong();
+                        var time = reader.readLong();
+                        var amount = reader.readLong();
+                        account.getLedger().append(id, entrySequence, time, amount, reader.readLong());
+                    } else if (type == OPERATION) {
+                        var id = reader.readString();
+                        var fingerprint = reader.readLong();
+                        var operationSequence = reader.readLong();
+                        if (operationSequence <= sequence) {
+                            operations.accept(new Operation(id, fingerprint, operationSequence));
+                        }
+                    } else {
+                        throw new IllegalStateException("unknown snapshot record type " + type);
+                    }
+                }
+                return sequence;
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return 0;
+        } else {
+            throw new IllegalStateException("no readable snapshot in " + dir);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class Reader implements Closeable {
+
+        private static final long WINDOW = 1L << 30;
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long offset;
+
+        Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+        }
+
+        boolean verify() throws IOException {
+            if (size < 4) {
+                return false;
+            }
+            var crc = new CRC32();
+            for (long position = 0; position < size - 4; position += WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - 4 - position)));
+            }
+            var trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - 4, 4);
+            return trailer.getInt() == (int) crc.getValue();
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer == null || buffer.remaining() < length) {
+                offset = buffer == null ? 0 : offset + buffer.position();
+                if (size - offset < length) {
+                    throw new EOFException();
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, Math.max(WINDOW, length)));
+            }
+        }
+
+        byte readByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        String readString() throws IOException {
+            var length = readInt();
+            ensure(length);
+            var bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+}
@@ -3,26 +3,201 @@ package net.swined.revolut.storage;
 import net.swined.revolut.ClientError;
 import org.joda.money.CurrencyUnit;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class Storage {
+public class Storage implements Closeable {
 
     private static final Logger logger = Logger.getLogger(Storage.class.getName());
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
-    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    public static final int DEFAULT_CHANGES = 1 << 16;
+    private final AccountStore accounts;
+    private final ReadWriteLock checkpoint = new ReentrantReadWriteLock();
+    private final Journal journal;
+    private final Snapshots snapshots;
+    private final Operations operations;
+    private final Aggregates aggregates = new Aggregates();
+    private final Engine engine;
+    private final Set<String> hotAccounts;
+    private final int stripes;
+    private final int changesCapacity;
+    private volatile Changes changes;
+    private volatile Follower follower;
+
+    private Storage(Builder builder) {
+        this.accounts = builder.accounts;
+        this.journal = builder.journal;
+        this.snapshots = builder.snapshots;
+        this.operations = builder.operations;
+        this.engine = builder.engine;
+        this.hotAccounts = Set.copyOf(builder.hotAccounts);
+        this.stripes = builder.stripes;
+        this.changesCapacity = builder.changes;
+        var start = System.nanoTime();
+        long recovered;
+        try {
+            recovered = snapshots == null ? 0 : snapshots.load(
+                    this::stripes,
+                    this::restore,
+                    operations::restore
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var restoredAccounts = accounts.size();
+        var restoredOperations = operations.size();
+        journal.replay(recovered, new Journal.Replay() {
+            @Override
+            public void create(long sequence, String id, CurrencyUnit currency) {
+                createAccount(id, currency);
+            }
+
+            @Override
+            public void operation(long sequence, String id, long time, Diff diff) {
+                var operation = new Operation(id, diff);
+                if (operations.restore(operation)) {
+                    try {
+                        operation.replay(Storage.this::get, aggregates, sequence, time);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, String.format("failed to replay operation %s", id), e);
+                    }
+                }
+            }
+        });
+        accounts.values().forEach(Account::consolidate);
+        this.changes = new Changes(changesCapacity, journal.appended());
+        logger.info(String.format(
+                "recovered %s accounts and %s operations from snapshot at sequence %s and replayed journal up to sequence %s in %s ms",
+                restoredAccounts,
+                restoredOperations,
+                recovered,
+                journal.appended(),
+                (System.nanoTime() - start) / 1_000_000
+        ));
+    }
+
+    private int stripes(String id) {
+        return hotAccounts.contains(id) ? stripes : 0;
+    }
+
+    private Account newAccount(String id, CurrencyUnit currency) {
+        return newAccount(id, currency, 0, 0);
+    }
+
+    Account newAccount(String id, CurrencyUnit currency, long balance, long sequence) {
+        return new Account(id, currency, balance, sequence, stripes(id));
+    }
+
+    void follow(Follower follower) {
+        this.follower = follower;
+    }
+
+    private void checkWritable() {
+        var follower = this.follower;
+        if (follower != null) {
+            throw new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, String.format("read-only follower of %s", follower.getLeader()));
+        }
+    }
+
+    private void createAccount(String id, CurrencyUnit currency) {
+        var created = new boolean[1];
+        accounts.computeIfAbsent(id, k -> {
+            aggregates.creating(currency);
+            created[0] = true;
+            return newAccount(id, currency);
+        });
+        if (created[0]) {
+            aggregates.created(currency);
+        }
+    }
+
+    void clear() {
+        aggregates.clear();
+        accounts.clear();
+    }
+
+    void restore(Account account) {
+        account.consolidate();
+        accounts.put(account);
+        aggregates.restore(account);
+    }
+
+    void rewind(long sequence) {
+        var previous = changes;
+        changes = new Changes(changesCapacity, sequence);
+        previous.close();
+    }
+
+    void replicate(Change change) {
+        if (change.getDiff() == null) {
+            createAccount(change.getId(), change.getCurrency());
+        } else {
+            try {
+                new Operation(change.getId(), change.getDiff()).replay(this::get, aggregates, change.getSequence(), change.getTime());
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, String.format("failed to replicate operation %s", change.getId()), e);
+            }
+        }
+        changes.publish(change);
+    }
+
+    public void snapshot() {
+        if (snapshots == null) {
+            throw new IllegalStateException("snapshots are not configured");
+        }
+        var start = System.nanoTime();
+        long sequence;
+        checkpoint.writeLock().lock();
+        try {
+            sequence = journal.appended();
+        } finally {
+            checkpoint.writeLock().unlock();
+        }
+        try {
+            journal.truncate(snapshots.write(sequence, accounts.values(), operations.values(), journal::sync));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info(String.format("snapshot at sequence %s written in %s ms", sequence, (System.nanoTime() - start) / 1_000_000));
+    }
 
     public void create(String id, CurrencyUnit currency) {
         if (id == null || id.isEmpty()) {
             throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "account id is missing");
         }
-        var account = new Account(id, currency);
-        accounts.putIfAbsent(id, account);
-        if (!account.equals(accounts.get(id))) {
+        checkWritable();
+        Account account;
+        var sequence = new long[1];
+        checkpoint.readLock().lock();
+        try {
+            account = accounts.computeIfAbsent(id, k -> {
+                aggregates.creating(currency);
+                sequence[0] = journal.create(id, currency);
+                return newAccount(id, currency);
+            });
+            if (sequence[0] > 0) {
+                aggregates.created(currency);
+            }
+        } finally {
+            checkpoint.readLock().unlock();
+        }
+        if (!account.equals(new Account(id, currency))) {
             throw new ClientError(HttpURLConnection.HTTP_CONFLICT, "account already exists with different currency");
         }
+        try {
+            journal.sync(journal.appended());
+        } finally {
+            if (sequence[0] > 0) {
+                changes.publish(new Change(sequence[0], id, System.currentTimeMillis(), null, currency));
+            }
+        }
     }
 
     public Account get(String id) {
@@ -34,25 +209,161 @@ public class Storage {
         }
     }
 
-    public void update(String id, Map<String, String> diff) {
-        logger.info(String.format("about to execute id=%s diff=%s", id, diff));
+    public void update(String id, Diff diff) {
+        var operation = newOperation(id, diff);
+        execute(register(operation), diff);
+    }
+
+    static Operation newOperation(String id, Diff diff) {
         if (id == null || id.isEmpty()) {
             throw new ClientError(HttpURLConnection.HTTP_BAD_REQUEST, "operation id is missing");
         }
-        var operation = operations.compute(id, (k, v) -> {
-            var op = new Operation(id, diff);
-            if (v == null) {
-                return op;
-            } else {
-                if (op.equals(v)) {
-                    return v;
-                } else {
-                    throw new ClientError(HttpURLConnection.HTTP_CONFLICT, "operation mismatch");
-                }
+        return new Operation(id, diff);
+    }
+
+    Operation register(Operation operation) {
+        checkWritable();
+        return operations.register(operation);
+    }
+
+    void forget(Operation operation) {
+        operations.forget(operation);
+    }
+
+    void execute(Operation operation, Diff diff) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("executing %s with diff %s", operation, diff));
+        }
+        var id = operation.getId();
+        var time = System.currentTimeMillis();
+        var committed = new long[1];
+        try {
+            journal.sync(operation.apply(this::get, engine, aggregates, time, () -> committed[0] = journal.operation(id, time, diff)));
+        } finally {
+            operation.settle();
+            // a reserved sequence is always published, even if the sync failed, so change consumers never stall at a gap
+            if (committed[0] > 0) {
+                changes.publish(new Change(committed[0], id, time, diff, null));
             }
-        });
-        logger.info("executing " + operation);
-        operation.apply(this::get);
+        }
+    }
+
+    public Operation getOperation(String id) {
+        var operation = operations.get(id);
+        if (operation == null) {
+            throw new ClientError(HttpURLConnection.HTTP_NOT_FOUND, "operation not found: " + id);
+        } else {
+            return operation;
+        }
+    }
+
+    public Operations getOperations() {
+        return operations;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public Changes getChanges() {
+        return changes;
+    }
+
+    public long getSequence() {
+        var follower = this.follower;
+        return follower == null ? journal.appended() : follower.getSequence();
+    }
+
+    public Follower getFollower() {
+        return follower;
+    }
+
+    public boolean awaitSequence(long sequence) {
+        var follower = this.follower;
+        return follower == null ? journal.appended() >= sequence : follower.await(sequence);
+    }
+
+    public Collection<Account> getAccounts() {
+        return accounts.values();
+    }
+
+    public boolean keepsHistory() {
+        return accounts.keepsHistory();
+    }
+
+    public Aggregates getAggregates() {
+        return aggregates;
+    }
+
+    public boolean verifyAggregates() {
+        var start = System.nanoTime();
+        var consistent = aggregates.verify(accounts.values());
+        logger.fine(() -> String.format("aggregates verified in %s ms", (System.nanoTime() - start) / 1_000_000));
+        return consistent;
+    }
+
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    @Override
+    public void close() {
+        changes.close();
+        engine.close();
+        journal.close();
+    }
+
+    public static final class Builder {
+
+        private Journal journal = new MemoryJournal();
+        private Snapshots snapshots;
+        private Operations operations = new Operations();
+        private Engine engine = new LockingEngine();
+        private Set<String> hotAccounts = Set.of();
+        private int stripes;
+        private int changes = DEFAULT_CHANGES;
+        private AccountStore accounts = new HeapAccountStore();
+
+        public Builder journal(Journal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        public Builder snapshots(Snapshots snapshots) {
+            this.snapshots = snapshots;
+            return this;
+        }
+
+        public Builder operations(Operations operations) {
+            this.operations = operations;
+            return this;
+        }
+
+        public Builder engine(Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder hotAccounts(Set<String> hotAccounts, int stripes) {
+            this.hotAccounts = hotAccounts;
+            this.stripes = stripes;
+            return this;
+        }
+
+        public Builder changes(int changes) {
+            this.changes = changes;
+            return this;
+        }
+
+        public Builder accounts(AccountStore accounts) {
+            this.accounts = accounts;
+            return this;
+        }
+
+        public Storage build() {
+            return new Storage(this);
+        }
+
     }
 
 }
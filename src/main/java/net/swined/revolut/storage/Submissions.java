@@ -0,0 +1,94 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class Submissions {
+
+    private static final Logger logger = Logger.getLogger(Submissions.class.getName());
+    private final Storage storage;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+    public Submissions(Storage storage, int maxPending) {
+        this.storage = storage;
+        this.maxPending = maxPending;
+    }
+
+    public Operation submit(String id, Diff diff, Executor executor) {
+        var operation = Storage.newOperation(id, diff);
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            throw new ClientError(HttpURLConnection.HTTP_UNAVAILABLE, "too many operations pending, retry later");
+        }
+        Operation registered;
+        try {
+            registered = storage.register(operation);
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+        if (registered != operation) {
+            pending.decrementAndGet();
+            return registered;
+        }
+        synchronized (this) {
+            var dependencies = new ArrayList<CompletableFuture<Void>>();
+            for (int i = 0; i < diff.size(); i++) {
+                var tail = tails.get(diff.getAccount(i));
+                if (tail != null) {
+                    dependencies.add(tail);
+                }
+            }
+            var future = CompletableFuture
+                    .allOf(dependencies.toArray(CompletableFuture[]::new))
+                    .handle((r, e) -> null)
+                    .thenRunAsync(() -> execute(operation, diff), executor);
+            for (int i = 0; i < diff.size(); i++) {
+                tails.put(diff.getAccount(i), future);
+            }
+            future.whenComplete((r, e) -> {
+                if (e != null) {
+                    logger.log(Level.SEVERE, String.format("failed to schedule operation %s", operation.getId()), e);
+                    // forgotten first, so a client retrying after the 503 gets the operation scheduled again
+                    storage.forget(operation);
+                    operation.fail(HttpURLConnection.HTTP_UNAVAILABLE, "operation could not be scheduled");
+                }
+                release(diff, future);
+            });
+        }
+        return operation;
+    }
+
+    private void execute(Operation operation, Diff diff) {
+        try {
+            storage.execute(operation, diff);
+        } catch (ClientError e) {
+            // the outcome is kept by the operation
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, String.format("failed to execute operation %s", operation.getId()), e);
+        }
+    }
+
+    private synchronized void release(Diff diff, CompletableFuture<Void> future) {
+        for (int i = 0; i < diff.size(); i++) {
+            tails.remove(diff.getAccount(i), future);
+        }
+        pending.decrementAndGet();
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+}
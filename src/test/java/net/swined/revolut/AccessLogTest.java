@@ -0,0 +1,95 @@
+package net.swined.revolut;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+class AccessLogTest {
+
+    private final Logger logger = Logger.getLogger(AccessLog.class.getName());
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private void await(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && messages.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(count, messages.size(), messages::toString);
+    }
+
+    @Test
+    public void record() throws InterruptedException {
+        var log = new AccessLog(16, 1);
+        release.countDown();
+        log.record("PUT", "/operation/1", "1", 200, System.nanoTime());
+        log.record("GET", "/account/a", null, 404, System.nanoTime());
+        await(2);
+        Assertions.assertTrue(messages.get(0).matches("method=PUT path=/operation/1 status=200 latency_us=\\d+ id=1"), messages::toString);
+        Assertions.assertTrue(messages.get(1).matches("method=GET path=/account/a status=404 latency_us=\\d+"), messages::toString);
+    }
+
+    @Test
+    public void sample() throws InterruptedException {
+        var log = new AccessLog(16, Integer.MAX_VALUE);
+        release.countDown();
+        for (int i = 0; i < 10; i++) {
+            log.record("GET", "/account/a", null, 200, System.nanoTime());
+        }
+        log.record("GET", "/account/b", null, 500, System.nanoTime());
+        await(1);
+        Assertions.assertTrue(messages.get(0).startsWith("method=GET path=/account/b status=500"), messages::toString);
+    }
+
+    @Test
+    public void drop() throws InterruptedException {
+        var log = new AccessLog(4, 1);
+        for (int i = 0; i < 10; i++) {
+            log.record("GET", "/account/" + i, null, 200, System.nanoTime());
+        }
+        var dropped = log.dropped();
+        Assertions.assertTrue(dropped >= 5);
+        release.countDown();
+        await(10 - (int) dropped + 1);
+        Assertions.assertTrue(messages.contains(String.format("access log dropped %s events", dropped)), messages::toString);
+    }
+
+    @BeforeEach
+    void setUp() {
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(true);
+    }
+
+}
@@ -0,0 +1,82 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.storage.Storage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class AdmissionTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private ExecutorService executor;
+    private Storage storage;
+    private Listener server;
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        var request = HttpRequest
+                .newBuilder(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void perRouteLimit() throws IOException, InterruptedException {
+        Assertions.assertEquals(200, send("PUT", "/account/a", "{\"currency\":\"USD\"}").statusCode());
+        try (var socket = new Socket("localhost", 8080)) {
+            var out = socket.getOutputStream();
+            out.write(("POST /operations HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                    "10\r\n{\"id\":\"1\",\"diff\"\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            var in = socket.getInputStream();
+            var status = new String(in.readNBytes(12), StandardCharsets.ISO_8859_1);
+            Assertions.assertEquals("HTTP/1.1 200", status);
+            var rejected = send("POST", "/operations", "{\"id\":\"2\",\"diff\":{\"a\":\"USD 1\"}}\n");
+            Assertions.assertEquals(
+                    List.of(503, "1", "{\"error\":\"too many requests in flight, retry later\"}"),
+                    List.of(rejected.statusCode(), rejected.headers().firstValue("Retry-After").orElseThrow(), rejected.body())
+            );
+            Assertions.assertEquals(200, send("PUT", "/operation/3", "{\"a\":\"USD 1\"}").statusCode());
+            Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 1.00\"}"), List.of(send("GET", "/account/a", null).statusCode(), send("GET", "/account/a", null).body()));
+            out.write("10\r\n:{\"a\":\"USD 2\"}}\n\r\n0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            socket.shutdownOutput();
+            Assertions.assertTrue(new String(in.readAllBytes(), StandardCharsets.ISO_8859_1).contains("\"id\":\"1\""));
+        }
+        Assertions.assertEquals(200, send("POST", "/operations", "{\"id\":\"4\",\"diff\":{\"a\":\"USD 4\"}}\n").statusCode());
+        Assertions.assertEquals("{\"balance\":\"USD 7.00\"}", send("GET", "/account/a", null).body());
+        var metrics = send("GET", "/metrics", null).body();
+        Assertions.assertTrue(metrics.contains("admission_rejected_total{method=\"POST\",route=\"/operations\"} 1\n"), metrics);
+        Assertions.assertTrue(metrics.contains("admission_in_flight{method=\"POST\",route=\"/operations\"} 0\n"), metrics);
+        Assertions.assertTrue(metrics.contains("method=\"POST\",route=\"/operations\",status=\"503\""), metrics);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        storage = new Storage.Builder().build();
+        server = new Server.Builder(storage).admission(new Admission(1, 1, Duration.ofSeconds(10))).build().run(8080, 100, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        storage.close();
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,144 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.storage.Amount;
+import net.swined.revolut.storage.Diff;
+import net.swined.revolut.storage.Storage;
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+class BinaryServerTest {
+
+    private static final CurrencyUnit USD = CurrencyUnit.USD;
+    private Storage storage;
+    private Listener listener;
+    private BinaryClient client;
+
+    private static List<Object> result(CompletableFuture<BinaryClient.Response> future) {
+        var response = future.join();
+        return response.getError() != null
+                ? List.of(response.getCode(), response.getError())
+                : response.getBalance() != null
+                ? List.of(response.getCode(), response.getBalance().toString(), response.getVersion())
+                : List.of(response.getCode());
+    }
+
+    @Test
+    void createAccount() {
+        Assertions.assertEquals(List.of(404, "account not found: a"), result(client.getBalance("a")));
+        Assertions.assertEquals(List.of(200), result(client.createAccount("a", USD)));
+        Assertions.assertEquals(List.of(200), result(client.createAccount("a", USD)));
+        Assertions.assertEquals(List.of(409, "account already exists with different currency"), result(client.createAccount("a", CurrencyUnit.GBP)));
+        Assertions.assertEquals(List.of(400, "account id is missing"), result(client.createAccount("", USD)));
+        Assertions.assertEquals(List.of(200, "USD 0.00", 0L), result(client.getBalance("a")));
+    }
+
+    @Test
+    void operation() {
+        client.createAccount("a", USD).join();
+        client.createAccount("b", CurrencyUnit.GBP).join();
+        Assertions.assertEquals(List.of(200), result(client.operation("1", Map.of("a", new Amount(USD, 150)))));
+        Assertions.assertEquals(List.of(200), result(client.operation("1", Map.of("a", new Amount(USD, 150)))));
+        Assertions.assertEquals(List.of(409, "operation mismatch"), result(client.operation("1", Map.of("a", new Amount(USD, 151)))));
+        Assertions.assertEquals(List.of(412, "insufficient balance"), result(client.operation("2", Map.of("a", new Amount(USD, -151)))));
+        Assertions.assertEquals(List.of(412, "Currencies differ: GBP/USD"), result(client.operation("3", Map.of("b", new Amount(USD, 1)))));
+        Assertions.assertEquals(List.of(404, "account not found: c"), result(client.operation("4", Map.of("c", new Amount(USD, 1)))));
+        var legs = new HashMap<String, Amount>();
+        for (int i = 0; i <= Diff.MAX_LEGS; i++) {
+            legs.put("x" + i, new Amount(USD, 1));
+        }
+        Assertions.assertEquals(List.of(400, "too many legs, at most 10000 are allowed"), result(client.operation("5", legs)));
+        Assertions.assertEquals(List.of(200, "USD 1.50", 3L), result(client.getBalance("a")));
+    }
+
+    @Test
+    void operationMatchesTextAmount() {
+        client.createAccount("a", USD).join();
+        storage.update("1", Diff.of(Map.of("a", "USD 10")));
+        Assertions.assertEquals(List.of(200), result(client.operation("1", Map.of("a", new Amount(USD, 1000)))));
+        storage.update("1", Diff.of(Map.of("a", "USD 10.00")));
+        Assertions.assertEquals(List.of(409, "operation mismatch"), result(client.operation("1", Map.of("a", new Amount(USD, 1001)))));
+        Assertions.assertEquals(List.of(200, "USD 10.00", 2L), result(client.getBalance("a")));
+    }
+
+    @Test
+    void rejectedByExecutor() throws IOException {
+        var rejecting = new Server.Builder(storage).build().runBinary(0, 100, task -> {
+            throw new RejectedExecutionException("shutting down");
+        });
+        try (var rejected = new BinaryClient(new InetSocketAddress("localhost", rejecting.getAddress().getPort()))) {
+            var futures = new ArrayList<CompletableFuture<BinaryClient.Response>>();
+            for (int i = 0; i < 2_000; i++) {
+                futures.add(rejected.createAccount("a" + i, USD));
+            }
+            for (var future : futures) {
+                Assertions.assertEquals(List.of(503, "too many requests in flight, retry later"), result(future));
+            }
+            Assertions.assertEquals(List.of(404, "account not found: a0"), result(rejected.getBalance("a0")));
+        } finally {
+            rejecting.stop();
+        }
+    }
+
+    @Test
+    void malformedFrames() throws IOException {
+        try (var socket = new Socket("localhost", listener.getAddress().getPort())) {
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(5);
+            out.writeInt(7);
+            out.writeByte(42);
+            out.writeInt(6);
+            out.writeInt(8);
+            out.writeByte(BinaryServer.GET_BALANCE);
+            out.writeByte(0);
+            out.flush();
+            var in = new DataInputStream(socket.getInputStream());
+            Assertions.assertEquals(List.of(6 + 2 + 23, 7, 400, "unknown request type 42"), List.of(in.readInt(), in.readInt(), (int) in.readShort(), new String(in.readNBytes(in.readUnsignedShort()))));
+            Assertions.assertEquals(List.of(6 + 2 + 13, 8, 400, "invalid frame"), List.of(in.readInt(), in.readInt(), (int) in.readShort(), new String(in.readNBytes(in.readUnsignedShort()))));
+        }
+    }
+
+    @Test
+    void pipelining() {
+        client.createAccount("a", USD).join();
+        var futures = new ArrayList<CompletableFuture<BinaryClient.Response>>();
+        for (int i = 0; i < 10_000; i++) {
+            futures.add(i % 2 == 0 ? client.operation("op" + i, Map.of("a", new Amount(USD, 1))) : client.getBalance("a"));
+        }
+        for (var future : futures) {
+            Assertions.assertEquals(200, future.join().getCode());
+        }
+        Assertions.assertEquals("USD 50.00", client.getBalance("a").join().getBalance().toString());
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new Storage.Builder().build();
+        listener = new Server.Builder(storage).build().runBinary(0, 100, ForkJoinPool.commonPool());
+        client = new BinaryClient(new InetSocketAddress("localhost", listener.getAddress().getPort()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        listener.stop();
+        storage.close();
+    }
+
+}
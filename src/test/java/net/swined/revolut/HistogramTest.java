@@ -0,0 +1,43 @@
+package net.swined.revolut;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+class HistogramTest {
+
+    @Test
+    public void percentiles() {
+        var random = new Random(42);
+        var values = new long[100_000];
+        var histogram = new Histogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (var percentile : new double[]{50, 90, 99, 99.9, 100}) {
+            var expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            var actual = histogram.percentile(percentile);
+            Assertions.assertTrue(actual >= expected && actual <= expected * 1.02, percentile + ": " + expected + " vs " + actual);
+        }
+        Assertions.assertEquals(values.length, histogram.count());
+        Assertions.assertEquals(values[values.length - 1], histogram.max());
+    }
+
+    @Test
+    public void add() {
+        var a = new Histogram();
+        var b = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            (i % 2 == 0 ? a : b).record(i);
+        }
+        a.add(b);
+        Assertions.assertEquals(100, a.count());
+        Assertions.assertEquals(50, a.percentile(50));
+        Assertions.assertEquals(100, a.max());
+    }
+
+}
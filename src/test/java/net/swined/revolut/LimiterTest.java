@@ -0,0 +1,85 @@
+package net.swined.revolut;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class LimiterTest {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static void slow(Limiter limiter) throws InterruptedException {
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TARGET) + 1);
+        Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        limiter.release(System.nanoTime() - 2 * TARGET);
+    }
+
+    @Test
+    void bounded() {
+        var limiter = new Limiter("", 2, 0, null, null);
+        Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        Assertions.assertFalse(limiter.tryAcquire(System.nanoTime()));
+        limiter.release(System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+        Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        Assertions.assertEquals(2, limiter.getLimit());
+        Assertions.assertEquals(2, limiter.getInFlight());
+        Assertions.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    void queued() {
+        var limiter = new Limiter("", 100, TARGET, null, null);
+        Assertions.assertFalse(limiter.tryAcquire(System.nanoTime() - 2 * TARGET));
+        Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        Assertions.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    void adaptive() throws InterruptedException {
+        var limiter = new Limiter("", 100, TARGET, null, null);
+        for (int i = 0; i < 3; i++) {
+            slow(limiter);
+        }
+        Assertions.assertEquals(72, limiter.getLimit());
+        // additive increase needs the limit to be in use
+        limiter.tryAcquire(System.nanoTime());
+        limiter.release(System.nanoTime());
+        Assertions.assertEquals(72, limiter.getLimit());
+        for (int i = 0; i < 36; i++) {
+            Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        }
+        for (int i = 0; i < 36; i++) {
+            limiter.release(System.nanoTime());
+        }
+        Assertions.assertEquals(72, limiter.getLimit());
+        for (int i = 0; i < 72; i++) {
+            Assertions.assertTrue(limiter.tryAcquire(System.nanoTime()));
+        }
+        Assertions.assertFalse(limiter.tryAcquire(System.nanoTime()));
+        for (int i = 0; i < 72; i++) {
+            limiter.release(System.nanoTime());
+        }
+        Assertions.assertEquals(73, limiter.getLimit());
+    }
+
+    @Test
+    void readsYieldToWrites() throws InterruptedException {
+        var writes = new Limiter.Group();
+        var write = new Limiter("", 100, TARGET, writes, null);
+        var read = new Limiter("", 100, TARGET, null, writes);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TARGET) + 1);
+        Assertions.assertTrue(read.tryAcquire(System.nanoTime()));
+        read.release(System.nanoTime());
+        Assertions.assertEquals(100, read.getLimit());
+        slow(write);
+        Assertions.assertEquals(90, write.getLimit());
+        Assertions.assertTrue(read.tryAcquire(System.nanoTime()));
+        read.release(System.nanoTime());
+        Assertions.assertEquals(90, read.getLimit());
+        slow(read);
+        Assertions.assertEquals(90, write.getLimit());
+    }
+
+}
@@ -0,0 +1,60 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.http.NioTransport;
+import net.swined.revolut.storage.Storage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+class LoadGeneratorTest {
+
+    private Storage storage;
+    private Listener server;
+
+    private LoadGenerator generator() {
+        return new LoadGenerator(
+                URI.create("http://localhost:" + server.getAddress().getPort()),
+                10,
+                1000,
+                Map.of(LoadGenerator.Kind.GET, 30, LoadGenerator.Kind.DEPOSIT, 20, LoadGenerator.Kind.TRANSFER, 40, LoadGenerator.Kind.RETRY, 10)
+        );
+    }
+
+    private void assertReport(LoadGenerator.Report report) {
+        Assertions.assertTrue(report.getCount(LoadGenerator.Kind.TRANSFER) > 0);
+        Assertions.assertTrue(report.getCount(LoadGenerator.Kind.DEPOSIT) > 0);
+        Assertions.assertTrue(report.isConserved(), report.getExpected() + " vs " + report.getActual());
+        Assertions.assertEquals(0, report.getMismatches());
+    }
+
+    @Test
+    public void open() throws IOException, InterruptedException {
+        assertReport(generator().run(500, 16, Duration.ZERO, Duration.ofSeconds(1)));
+    }
+
+    @Test
+    public void closed() throws IOException, InterruptedException {
+        assertReport(generator().run(0, 4, Duration.ZERO, Duration.ofSeconds(1)));
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new Storage.Builder().build();
+        server = new Server.Builder(storage).build().run(new NioTransport(1), 0, 100, ForkJoinPool.commonPool());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        storage.close();
+    }
+
+}
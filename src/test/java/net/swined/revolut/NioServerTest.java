@@ -0,0 +1,60 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.NioTransport;
+import net.swined.revolut.http.Transport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+class NioServerTest extends ServerTest {
+
+    @Override
+    protected Transport transport() {
+        return new NioTransport(2);
+    }
+
+    private static String exchange(String requests) throws IOException {
+        try (var socket = new Socket("localhost", 8080)) {
+            socket.getOutputStream().write(requests.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    void pipelining() throws IOException {
+        Assertions.assertEquals(
+                "HTTP/1.1 200 OK\r\nX-Sequence: 1\r\nContent-Length: 2\r\n\r\n{}" +
+                        "HTTP/1.1 200 OK\r\nETag: \"0\"\r\nContent-Length: 22\r\n\r\n{\"balance\":\"USD 0.00\"}" +
+                        "HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n" +
+                        "HTTP/1.1 404 Not Found\r\nContent-Type: text/html\r\nContent-Length: 50\r\nConnection: close\r\n\r\n" +
+                        "<h1>404 Not Found</h1>No context found for request",
+                exchange("PUT /account/a HTTP/1.1\r\nHost: localhost\r\nContent-Length: 18\r\n\r\n{\"currency\":\"USD\"}" +
+                        "GET /account/a HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                        "DELETE /account/a HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nabc" +
+                        "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n" +
+                        "GET /account/a HTTP/1.1\r\nHost: localhost\r\n\r\n")
+        );
+    }
+
+    @Test
+    void chunkedRequest() throws IOException {
+        Assertions.assertEquals(
+                "HTTP/1.1 200 OK\r\nX-Sequence: 1\r\nContent-Length: 2\r\nConnection: close\r\n\r\n{}",
+                exchange("PUT /account/a HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n" +
+                        "5\r\n{\"cur\r\nd;ext=1\r\nrency\":\"USD\"}\r\n0\r\n\r\n")
+        );
+    }
+
+    @Test
+    void badRequest() throws IOException {
+        Assertions.assertEquals(
+                "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+                exchange("GARBAGE\r\n\r\n")
+        );
+    }
+
+}
@@ -0,0 +1,120 @@
+package net.swined.revolut;
+
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.storage.Follower;
+import net.swined.revolut.storage.Leader;
+import net.swined.revolut.storage.Storage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+class ReplicationTest {
+
+    private static final int LEADER = 8080;
+    private static final int FOLLOWER = 8081;
+    private static final int REPLICATION = 8082;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Storage leaderStorage;
+    private Listener leaderServer;
+    private Leader leader;
+    private Storage followerStorage;
+    private Listener followerServer;
+    private Follower follower;
+
+    private HttpResponse<String> send(int port, String method, String path, String body, String... headers) throws IOException, InterruptedException {
+        var request = HttpRequest
+                .newBuilder(URI.create("http://localhost:" + port + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String write(String path, String body) throws IOException, InterruptedException {
+        var response = send(LEADER, "PUT", path, body);
+        Assertions.assertEquals(List.of(200, "{}"), List.of(response.statusCode(), response.body()));
+        return response.headers().firstValue("X-Sequence").orElseThrow();
+    }
+
+    private void startFollower() throws IOException {
+        followerStorage = new Storage.Builder().changes(4).build();
+        follower = new Follower(followerStorage, new InetSocketAddress("localhost", REPLICATION), 2000);
+        followerServer = new Server.Builder(followerStorage).build().run(FOLLOWER, 100, ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void bootstrapFromSnapshot() throws IOException, InterruptedException {
+        write("/account/1", "{\"currency\":\"USD\"}");
+        write("/account/2", "{\"currency\":\"USD\"}");
+        for (int i = 0; i < 8; i++) {
+            write("/operation/" + i, "{\"1\":\"USD 2\"}");
+        }
+        startFollower();
+        var token = write("/operation/a", "{\"1\":\"USD -5\",\"2\":\"USD 5\"}");
+        var response = send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", token);
+        Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 11.00\"}"), List.of(response.statusCode(), response.body()));
+        Assertions.assertTrue(response.headers().firstValue("X-Replication-Lag").isPresent());
+        response = send(FOLLOWER, "GET", "/account/2", null, "X-Min-Sequence", token);
+        Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 5.00\"}", "\"11\""), List.of(response.statusCode(), response.body(), response.headers().firstValue("ETag").orElseThrow()));
+        Assertions.assertEquals(
+                send(LEADER, "GET", "/account/1/operations", null).body(),
+                send(FOLLOWER, "GET", "/account/1/operations", null).body()
+        );
+        Assertions.assertEquals(503, send(FOLLOWER, "PUT", "/operation/b", "{\"1\":\"USD 1\"}").statusCode());
+        Assertions.assertEquals(503, send(FOLLOWER, "PUT", "/account/3", "{\"currency\":\"USD\"}").statusCode());
+        response = send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", "100");
+        Assertions.assertEquals(List.of(503, "{\"error\":\"sequence 100 is not replicated yet\"}"), List.of(response.statusCode(), response.body()));
+        response = send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", "x");
+        Assertions.assertEquals(List.of(400, "{\"error\":\"invalid X-Min-Sequence: x\"}"), List.of(response.statusCode(), response.body()));
+        Assertions.assertEquals(0, follower.getLag());
+    }
+
+    @Test
+    public void resume() throws IOException, InterruptedException {
+        startFollower();
+        write("/account/1", "{\"currency\":\"USD\"}");
+        var token = write("/operation/a", "{\"1\":\"USD 1\"}");
+        Assertions.assertEquals(200, send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", token).statusCode());
+        leader.close();
+        token = write("/operation/b", "{\"1\":\"USD 2\"}");
+        Assertions.assertEquals(503, send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", token).statusCode());
+        Assertions.assertFalse(follower.isConnected());
+        Assertions.assertTrue(follower.getLag() > 0);
+        leader = new Leader(leaderStorage, new InetSocketAddress(REPLICATION));
+        var response = send(FOLLOWER, "GET", "/account/1", null, "X-Min-Sequence", token);
+        Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 3.00\"}"), List.of(response.statusCode(), response.body()));
+        var metrics = send(FOLLOWER, "GET", "/metrics", null).body();
+        Assertions.assertTrue(metrics.contains("replication_sequence 3\n"), metrics);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        leaderStorage = new Storage.Builder().changes(4).build();
+        leaderServer = new Server.Builder(leaderStorage).build().run(LEADER, 100, ForkJoinPool.commonPool());
+        leader = new Leader(leaderStorage, new InetSocketAddress(REPLICATION));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (follower != null) {
+            follower.close();
+            followerServer.stop();
+            followerStorage.close();
+        }
+        leader.close();
+        leaderServer.stop();
+        leaderStorage.close();
+    }
+
+}
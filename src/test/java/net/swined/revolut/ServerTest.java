@@ -2,7 +2,14 @@ package net.swined.revolut;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sun.net.httpserver.HttpServer;
+import net.swined.revolut.http.Listener;
+import net.swined.revolut.http.SunTransport;
+import net.swined.revolut.http.Transport;
+import net.swined.revolut.storage.Diff;
+import net.swined.revolut.storage.Engine;
+import net.swined.revolut.storage.FileJournal;
+import net.swined.revolut.storage.LockingEngine;
+import net.swined.revolut.storage.Snapshots;
 import net.swined.revolut.storage.Storage;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
@@ -17,9 +24,15 @@ import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -27,7 +40,8 @@ class ServerTest {
 
     private final HttpClient client = HttpClient.newHttpClient();
     private final ObjectMapper mapper = new ObjectMapper();
-    private HttpServer server;
+    private Storage storage;
+    private Listener server;
 
     public void assertGet(String path, int code, String body) {
         assertResponse(GET(path), code, body);
@@ -79,6 +93,29 @@ class ServerTest {
         }
     }
 
+    private HttpRequest PUT_ASYNC(String url, Map<String, String> data) {
+        try {
+            return HttpRequest
+                    .newBuilder(new URI("http://localhost:" + server.getAddress().getPort() + url))
+                    .header("Prefer", "respond-async")
+                    .PUT(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(data)))
+                    .build();
+        } catch (URISyntaxException | JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private HttpRequest POST(String url, String data) {
+        try {
+            return HttpRequest
+                    .newBuilder(new URI("http://localhost:" + server.getAddress().getPort() + url))
+                    .POST(HttpRequest.BodyPublishers.ofString(data))
+                    .build();
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Test
     public void getUnknownPath() {
         assertGet("/", 404, "<h1>404 Not Found</h1>No context found for request");
@@ -86,7 +123,7 @@ class ServerTest {
 
     @Test
     public void getUnknownMethod() {
-        assertGet("/operation/qwe", 405, "");
+        assertResponse(HttpRequest.newBuilder(GET("/operation/qwe").uri()).DELETE().build(), 405, "");
     }
 
     @Test
@@ -100,6 +137,15 @@ class ServerTest {
         assertPut("/operation/" + UUID.randomUUID().toString(), Map.of("y", "USD zero"), 400, "{\"error\":\"Money amount 'USD zero' cannot be parsed\"}");
     }
 
+    @Test
+    public void overflow() {
+        assertPut("/account/y", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/1", Map.of("y", "USD 92233720368547758.08"), 400, "{\"error\":\"amount is too large: USD 92233720368547758.08\"}");
+        assertPut("/operation/2", Map.of("y", "USD 92233720368547758.07"), 200, "{}");
+        assertPut("/operation/3", Map.of("y", "USD 0.01"), 412, "{\"error\":\"balance overflow\"}");
+        assertGet("/account/y", 200, "{\"balance\":\"USD 92233720368547758.07\"}");
+    }
+
     @Test
     public void putUnknownPath() {
         assertPut("/", Map.of(), 404, "<h1>404 Not Found</h1>No context found for request");
@@ -246,14 +292,489 @@ class ServerTest {
         balance.forEach((k, v) -> assertGet("/account/" + k, 200, "{\"balance\":\"" + v + "\"}"));
     }
 
+    @Test
+    public void batchOperations() {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/2", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/3", Map.of("currency", "GBP"), 200, "{}");
+        assertResponse(POST("/operations", "[" +
+                "{\"id\":\"a\",\"diff\":{\"1\":\"USD 10\"}}," +
+                "{\"id\":\"b\",\"diff\":{\"1\":\"USD -4\",\"2\":\"USD 4\"}}," +
+                "{\"id\":\"c\",\"diff\":{\"3\":\"GBP -1\"}}," +
+                "{\"id\":\"d\",\"diff\":{\"2\":\"USD -5\"}}," +
+                "{\"id\":\"a\",\"diff\":{\"1\":\"USD 10\"}}," +
+                "{\"id\":\"a\",\"diff\":{\"1\":\"USD 11\"}}," +
+                "{\"id\":\"e\",\"diff\":{\"4\":\"USD 1\"}}" +
+                "]"), 200,
+                "{\"id\":\"a\",\"code\":200}\n" +
+                "{\"id\":\"b\",\"code\":200}\n" +
+                "{\"id\":\"c\",\"code\":412,\"error\":\"insufficient balance\"}\n" +
+                "{\"id\":\"d\",\"code\":412,\"error\":\"insufficient balance\"}\n" +
+                "{\"id\":\"a\",\"code\":200}\n" +
+                "{\"id\":\"a\",\"code\":409,\"error\":\"operation mismatch\"}\n" +
+                "{\"id\":\"e\",\"code\":404,\"error\":\"account not found: 4\"}\n"
+        );
+        assertResponse(POST("/operations",
+                "{\"id\":\"f\",\"diff\":{\"2\":\"USD -4\"}}\n" +
+                "{\"id\":\"g\",\"diff\":{\"1\":\"USD -6\"}}\n" +
+                "{\"id\":\"h\",\"diff\":{\"1\":\"USD -1\"}}\n" +
+                "{\"id\":\"i\",\"diff\":"), 200,
+                "{\"id\":\"f\",\"code\":200}\n" +
+                "{\"id\":\"g\",\"code\":200}\n" +
+                "{\"id\":\"h\",\"code\":412,\"error\":\"insufficient balance\"}\n" +
+                "{\"code\":400,\"error\":\"invalid json\"}\n"
+        );
+        assertGet("/account/1", 200, "{\"balance\":\"USD 0.00\"}");
+        assertGet("/account/2", 200, "{\"balance\":\"USD 0.00\"}");
+    }
+
+    @Test
+    public void batchConcurrency() {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        var body = new StringBuilder();
+        var expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            storage.create("a" + i, CurrencyUnit.USD);
+            body.append(String.format("{\"id\":\"in%s\",\"diff\":{\"a%s\":\"USD 1\"}}\n", i, i));
+            body.append(String.format("{\"id\":\"out%s\",\"diff\":{\"a%s\":\"USD -1\",\"1\":\"USD 1\"}}\n", i, i));
+            expected.append(String.format("{\"id\":\"in%s\",\"code\":200}\n{\"id\":\"out%s\",\"code\":200}\n", i, i));
+        }
+        assertResponse(POST("/operations", body.toString()), 200, expected.toString());
+        assertGet("/account/1", 200, "{\"balance\":\"USD 2000.00\"}");
+    }
+
+    @Test
+    public void batchesOnSaturatedExecutor() throws Exception {
+        server.stop();
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            server = new Server.Builder(storage).build().run(transport(), 8080, 100, executor);
+            assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+            var batches = IntStream.range(0, 4).mapToObj(i -> {
+                var body = new StringBuilder();
+                for (int j = 0; j < 100; j++) {
+                    body.append(String.format("{\"id\":\"%s-%s\",\"diff\":{\"1\":\"USD 1\"}}\n", i, j));
+                }
+                return client.sendAsync(POST("/operations", body.toString()), HttpResponse.BodyHandlers.ofString());
+            }).collect(Collectors.toList());
+            for (var batch : batches) {
+                Assertions.assertEquals(200, batch.get(10, TimeUnit.SECONDS).statusCode());
+            }
+            assertGet("/account/1", 200, "{\"balance\":\"USD 400.00\"}");
+        } finally {
+            server.stop();
+            executor.shutdownNow();
+            server = new Server.Builder(storage).build().run(transport(), 8080, 100, ForkJoinPool.commonPool());
+        }
+    }
+
+    @Test
+    public void accountOperations() {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/2", Map.of("currency", "USD"), 200, "{}");
+        assertGet("/account/1/operations", 200, "{\"operations\":[],\"next\":0}");
+        assertPut("/operation/a", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/b", Map.of("1", "USD -2", "2", "USD 2"), 200, "{}");
+        assertPut("/operation/c", Map.of("1", "USD -20"), 412, "{\"error\":\"insufficient balance\"}");
+        assertPut("/operation/d", Map.of("1", "USD 0.5"), 200, "{}");
+        assertGet("/account/1/operations", 200, "{\"operations\":["
+                + "{\"id\":\"a\",\"sequence\":3,\"amount\":\"USD 5.00\",\"balance\":\"USD 5.00\"},"
+                + "{\"id\":\"b\",\"sequence\":4,\"amount\":\"USD -2.00\",\"balance\":\"USD 3.00\"},"
+                + "{\"id\":\"d\",\"sequence\":5,\"amount\":\"USD 0.50\",\"balance\":\"USD 3.50\"}"
+                + "],\"next\":3}");
+        assertGet("/account/1/operations?limit=2", 200, "{\"operations\":["
+                + "{\"id\":\"a\",\"sequence\":3,\"amount\":\"USD 5.00\",\"balance\":\"USD 5.00\"},"
+                + "{\"id\":\"b\",\"sequence\":4,\"amount\":\"USD -2.00\",\"balance\":\"USD 3.00\"}"
+                + "],\"next\":2}");
+        assertGet("/account/1/operations?after=2&limit=2", 200, "{\"operations\":["
+                + "{\"id\":\"d\",\"sequence\":5,\"amount\":\"USD 0.50\",\"balance\":\"USD 3.50\"}"
+                + "],\"next\":3}");
+        assertGet("/account/1/operations?after=3", 200, "{\"operations\":[],\"next\":3}");
+        assertGet("/account/2/operations", 200, "{\"operations\":["
+                + "{\"id\":\"b\",\"sequence\":4,\"amount\":\"USD 2.00\",\"balance\":\"USD 2.00\"}"
+                + "],\"next\":1}");
+        assertGet("/account/3/operations", 404, "{\"error\":\"account not found: 3\"}");
+        assertGet("/account/operations", 404, "{\"error\":\"account not found: operations\"}");
+        assertPut("/account/operations", Map.of("currency", "USD"), 200, "{}");
+        assertGet("/account/operations", 200, "{\"balance\":\"USD 0.00\"}");
+        assertGet("/account/operations/operations", 200, "{\"operations\":[],\"next\":0}");
+        assertGet("/account/1/operations?limit=0", 400, "{\"error\":\"limit must be between 1 and 1000\"}");
+        assertGet("/account/1/operations?after=x", 400, "{\"error\":\"invalid after: x\"}");
+    }
+
+    @Test
+    public void balanceAsOf() throws IOException, InterruptedException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir);
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/2", Map.of("currency", "GBP"), 200, "{}");
+        assertPut("/operation/a", Map.of("1", "USD 5"), 200, "{}");
+        storage.snapshot();
+        var before = tick();
+        assertPut("/operation/b", Map.of("1", "USD -2"), 200, "{}");
+        assertPut("/operation/c", Map.of("2", "GBP 1"), 200, "{}");
+        var after = tick();
+        assertPut("/operation/d", Map.of("1", "USD 10"), 200, "{}");
+        for (var restart = 0; restart < 2; restart++) {
+            assertGet("/account/1?asOf=0", 200, "{\"balance\":\"USD 0.00\"}");
+            assertGet("/account/1?asOf=" + before, 200, "{\"balance\":\"USD 5.00\"}");
+            assertGet("/account/1?asOf=" + Instant.ofEpochMilli(after), 200, "{\"balance\":\"USD 3.00\"}");
+            assertGet("/account/1", 200, "{\"balance\":\"USD 13.00\"}");
+            assertGet("/account/2?asOf=" + before, 200, "{\"balance\":\"GBP 0.00\"}");
+            var response = client.send(GET("/balances?asOf=" + after), HttpResponse.BodyHandlers.ofString());
+            Assertions.assertEquals(200, response.statusCode());
+            Assertions.assertEquals(Set.of(
+                    "{\"id\":\"1\",\"balance\":\"USD 3.00\"}",
+                    "{\"id\":\"2\",\"balance\":\"GBP 1.00\"}"
+            ), Set.of(response.body().split("\n")));
+            restart(dir);
+        }
+        assertGet("/account/1?asOf=yesterday", 400, "{\"error\":\"invalid asOf: yesterday\"}");
+        assertGet("/balances?asOf=-1", 400, "{\"error\":\"invalid asOf: -1\"}");
+    }
+
+    private static long tick() throws InterruptedException {
+        Thread.sleep(5);
+        var now = System.currentTimeMillis();
+        Thread.sleep(5);
+        return now;
+    }
+
+    @Test
+    public void metrics() throws IOException, InterruptedException {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/1", Map.of("1", "USD 6"), 409, "{\"error\":\"operation mismatch\"}");
+        assertPut("/operation/2", Map.of("1", "USD -6"), 412, "{\"error\":\"insufficient balance\"}");
+        assertGet("/account/2", 404, "{\"error\":\"account not found: 2\"}");
+        assertResponse(HttpRequest.newBuilder(GET("/operation/1").uri()).DELETE().build(), 405, "");
+        var response = client.send(GET("/metrics"), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        var lines = Set.of(response.body().split("\n"));
+        for (var line : List.of(
+                "# TYPE http_request_duration_seconds histogram",
+                "http_request_duration_seconds_count{method=\"PUT\",route=\"/account/{id}\",status=\"200\"} 1",
+                "http_request_duration_seconds_count{method=\"PUT\",route=\"/operation/{id}\",status=\"200\"} 2",
+                "http_request_duration_seconds_count{method=\"PUT\",route=\"/operation/{id}\",status=\"409\"} 1",
+                "http_request_duration_seconds_count{method=\"PUT\",route=\"/operation/{id}\",status=\"412\"} 1",
+                "http_request_duration_seconds_count{method=\"GET\",route=\"/account/{id}\",status=\"404\"} 1",
+                "http_request_duration_seconds_count{method=\"other\",route=\"/operation/{id}\",status=\"405\"} 1",
+                "http_request_duration_seconds_bucket{method=\"GET\",route=\"/account/{id}\",status=\"404\",le=\"+Inf\"} 1",
+                "storage_lock_wait_seconds_count 2",
+                "storage_apply_seconds_count 2",
+                "storage_accounts 1",
+                "storage_operations 2",
+                "storage_operations_pending 0",
+                "storage_operation_lookups_total{result=\"hit\"} 1"
+        )) {
+            Assertions.assertTrue(lines.contains(line), line);
+        }
+    }
+
+    @Test
+    public void recoverFromJournal() throws IOException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir);
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/2", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/2", Map.of("1", "USD -2", "2", "USD 2"), 200, "{}");
+        assertPut("/operation/3", Map.of("1", "USD -20"), 412, "{\"error\":\"insufficient balance\"}");
+        restart(dir);
+        assertGet("/account/1", 200, "{\"balance\":\"USD 3.00\"}");
+        assertGet("/account/2", 200, "{\"balance\":\"USD 2.00\"}");
+        assertPut("/operation/2", Map.of("1", "USD -2", "2", "USD 2"), 200, "{}");
+        assertPut("/operation/2", Map.of("1", "USD -3", "2", "USD 3"), 409, "{\"error\":\"operation mismatch\"}");
+        assertPut("/account/1", Map.of("currency", "GBP"), 409, "{\"error\":\"account already exists with different currency\"}");
+        assertPut("/operation/4", Map.of("2", "USD -1"), 200, "{}");
+        restart(dir);
+        assertGet("/account/1", 200, "{\"balance\":\"USD 3.00\"}");
+        assertGet("/account/2", 200, "{\"balance\":\"USD 1.00\"}");
+        assertGet("/account/2/operations", 200, "{\"operations\":["
+                + "{\"id\":\"2\",\"sequence\":4,\"amount\":\"USD 2.00\",\"balance\":\"USD 2.00\"},"
+                + "{\"id\":\"4\",\"sequence\":5,\"amount\":\"USD -1.00\",\"balance\":\"USD 1.00\"}"
+                + "],\"next\":2}");
+    }
+
+    @Test
+    public void recoverFromSnapshot() throws IOException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir);
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/2", Map.of("currency", "GBP"), 200, "{}");
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        storage.snapshot();
+        assertPut("/operation/2", Map.of("1", "USD -2"), 200, "{}");
+        assertPut("/account/3", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/3", Map.of("1", "USD -1", "3", "USD 1"), 200, "{}");
+        storage.snapshot();
+        assertPut("/operation/4", Map.of("3", "USD 7"), 200, "{}");
+        restart(dir);
+        assertGet("/account/1", 200, "{\"balance\":\"USD 2.00\"}");
+        assertGet("/account/2", 200, "{\"balance\":\"GBP 0.00\"}");
+        assertGet("/account/3", 200, "{\"balance\":\"USD 8.00\"}");
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/3", Map.of("1", "USD -1", "3", "USD 2"), 409, "{\"error\":\"operation mismatch\"}");
+        assertPut("/operation/4", Map.of("3", "USD 7"), 200, "{}");
+        assertGet("/account/3", 200, "{\"balance\":\"USD 8.00\"}");
+        storage.snapshot();
+        restart(dir);
+        assertGet("/account/1", 200, "{\"balance\":\"USD 2.00\"}");
+        assertGet("/account/3", 200, "{\"balance\":\"USD 8.00\"}");
+        assertGet("/account/1/operations", 200, "{\"operations\":["
+                + "{\"id\":\"1\",\"sequence\":3,\"amount\":\"USD 5.00\",\"balance\":\"USD 5.00\"},"
+                + "{\"id\":\"2\",\"sequence\":4,\"amount\":\"USD -2.00\",\"balance\":\"USD 3.00\"},"
+                + "{\"id\":\"3\",\"sequence\":6,\"amount\":\"USD -1.00\",\"balance\":\"USD 2.00\"}"
+                + "],\"next\":3}");
+        assertGet("/account/3/operations", 200, "{\"operations\":["
+                + "{\"id\":\"3\",\"sequence\":6,\"amount\":\"USD 1.00\",\"balance\":\"USD 1.00\"},"
+                + "{\"id\":\"4\",\"sequence\":7,\"amount\":\"USD 7.00\",\"balance\":\"USD 8.00\"}"
+                + "],\"next\":2}");
+    }
+
+    @Test
+    public void snapshotDuringWrites() throws IOException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir);
+        IntStream.range(0, 20000).parallel().forEach(i -> storage.create(String.valueOf(i), CurrencyUnit.USD));
+        var writes = CompletableFuture.runAsync(() -> IntStream.range(0, 4000).parallel().forEach(i ->
+                storage.update("op" + i, Diff.of(Map.of(String.valueOf(i % 8), "USD 1")))
+        ));
+        while (!writes.isDone()) {
+            storage.snapshot();
+        }
+        writes.join();
+        restart(dir);
+        for (var i = 0; i < 8; i++) {
+            assertGet("/account/" + i, 200, "{\"balance\":\"USD 500.00\"}");
+        }
+    }
+
+    @Test
+    public void crashAfterSnapshotDuringWrites() throws IOException {
+        var dir = Files.createTempDirectory("journal");
+        tearDown();
+        storage = new Storage.Builder().journal(new FileJournal(dir, 1 << 20, Duration.ofMillis(100))).snapshots(new Snapshots(dir)).engine(engine()).build();
+        server = new Server.Builder(storage).build().run(transport(), 8080, 100, ForkJoinPool.commonPool());
+        IntStream.range(0, 8).parallel().forEach(i -> {
+            storage.create(String.valueOf(i), CurrencyUnit.USD);
+            storage.update("fund" + i, Diff.of(Map.of(String.valueOf(i), "USD 1000")));
+        });
+        var transfers = IntStream.range(0, 80)
+                .mapToObj(i -> Diff.of(Map.of(String.valueOf(i % 8), "USD -1", String.valueOf((i + 1) % 8), "USD 1")))
+                .collect(Collectors.toList());
+        var writes = CompletableFuture.runAsync(() -> IntStream.range(0, transfers.size()).parallel().forEach(i ->
+                storage.update("t" + i, transfers.get(i))
+        ));
+        while (storage.get("1").getBalance() == 100000 && !writes.isDone()) {
+            Thread.onSpinWait();
+        }
+        storage.snapshot();
+        var crashed = Files.createTempDirectory("crashed");
+        try (var files = Files.list(dir)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, crashed.resolve(file.getFileName()));
+            }
+        }
+        writes.join();
+        restart(crashed);
+        for (var i = 0; i < transfers.size(); i++) {
+            storage.update("t" + i, transfers.get(i));
+        }
+        for (var i = 0; i < 8; i++) {
+            assertGet("/account/" + i, 200, "{\"balance\":\"USD 1000.00\"}");
+        }
+    }
+
+    @Test
+    public void conditionalGet() throws IOException, InterruptedException {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        var response = client.send(GET("/account/1"), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        var etag = response.headers().firstValue("ETag").orElseThrow();
+        Assertions.assertEquals("\"0\"", etag);
+        var conditional = HttpRequest.newBuilder(GET("/account/1").uri()).header("If-None-Match", etag).build();
+        response = client.send(conditional, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(List.of(304, "", etag), List.of(response.statusCode(), response.body(), response.headers().firstValue("ETag").orElseThrow()));
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        response = client.send(conditional, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 5.00\"}", "\"2\""), List.of(response.statusCode(), response.body(), response.headers().firstValue("ETag").orElseThrow()));
+    }
+
+    @Test
+    public void longPoll() throws IOException, InterruptedException {
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertGet("/account/1?waitForVersionAfter=-1", 200, "{\"balance\":\"USD 0.00\"}");
+        var response = client.send(GET("/account/1?waitForVersionAfter=0&timeout=100"), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(List.of(304, "", "\"0\""), List.of(response.statusCode(), response.body(), response.headers().firstValue("ETag").orElseThrow()));
+        var watches = IntStream.range(0, 8)
+                .mapToObj(i -> client.sendAsync(GET("/account/1?waitForVersionAfter=0&timeout=10000"), HttpResponse.BodyHandlers.ofString()))
+                .collect(Collectors.toList());
+        Thread.sleep(200);
+        Assertions.assertTrue(watches.stream().noneMatch(CompletableFuture::isDone));
+        assertPut("/operation/1", Map.of("1", "USD 5"), 200, "{}");
+        for (var watch : watches) {
+            response = watch.join();
+            Assertions.assertEquals(List.of(200, "{\"balance\":\"USD 5.00\"}", "\"2\""), List.of(response.statusCode(), response.body(), response.headers().firstValue("ETag").orElseThrow()));
+        }
+        assertGet("/account/1?waitForVersionAfter=x", 400, "{\"error\":\"invalid waitForVersionAfter: x\"}");
+        assertGet("/account/1?waitForVersionAfter=2&timeout=60001", 400, "{\"error\":\"timeout must be between 0 and 60000\"}");
+        assertGet("/account/2?waitForVersionAfter=2", 404, "{\"error\":\"account not found: 2\"}");
+    }
+
+    @Test
+    public void changes() throws IOException, InterruptedException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir);
+        assertPut("/account/0", Map.of("currency", "USD"), 200, "{}");
+        restart(dir);
+        assertGet("/changes?after=0", 410, "{\"error\":\"changes after 0 are no longer available\"}");
+        assertGet("/changes?after=x", 400, "{\"error\":\"invalid after: x\"}");
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/a", Map.of("1", "USD 5"), 200, "{}");
+        assertPut("/operation/b", Map.of("1", "USD -6"), 412, "{\"error\":\"insufficient balance\"}");
+        assertPut("/operation/a", Map.of("1", "USD 5"), 200, "{}");
+        var stream = client.send(GET("/changes?after=1"), HttpResponse.BodyHandlers.ofLines());
+        Assertions.assertEquals(200, stream.statusCode());
+        try (var lines = stream.body()) {
+            var changes = lines.iterator();
+            Assertions.assertEquals("{\"sequence\":2,\"id\":\"1\",\"type\":\"account\",\"currency\":\"USD\"}", withoutTime(changes.next()));
+            Assertions.assertEquals("{\"sequence\":3,\"id\":\"a\",\"type\":\"operation\",\"diff\":{\"1\":\"USD 5.00\"}}", withoutTime(changes.next()));
+            storage.create("2", CurrencyUnit.USD);
+            storage.update("c", Diff.of(Map.of("1", "USD -1", "2", "USD 1")));
+            Assertions.assertEquals("{\"sequence\":4,\"id\":\"2\",\"type\":\"account\",\"currency\":\"USD\"}", withoutTime(changes.next()));
+            Assertions.assertTrue(withoutTime(changes.next()).matches("\\{\"sequence\":5,\"id\":\"c\",\"type\":\"operation\",\"diff\":\\{\"[12]\":\"USD -?1.00\",\"[12]\":\"USD -?1.00\"}}"));
+        }
+    }
+
+    private static String withoutTime(String change) {
+        return change.replaceFirst(",\"time\":\"[^\"]+\"", "");
+    }
+
+    @Test
+    public void wideOperation() {
+        var payroll = new HashMap<String, String>();
+        for (int i = 1; i < Diff.MAX_LEGS; i++) {
+            storage.create("p" + i, CurrencyUnit.USD);
+            payroll.put("p" + i, "USD 0.01");
+        }
+        assertPut("/account/payer", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/fund", Map.of("payer", "USD 100"), 200, "{}");
+        payroll.put("payer", "USD -100.01");
+        assertPut("/operation/overdraft", payroll, 412, "{\"error\":\"insufficient balance\"}");
+        payroll.put("payer", "USD -99.99");
+        assertPut("/operation/payroll", payroll, 200, "{}");
+        assertGet("/account/payer", 200, "{\"balance\":\"USD 0.01\"}");
+        assertGet("/account/p1", 200, "{\"balance\":\"USD 0.01\"}");
+        assertGet("/account/p9999", 200, "{\"balance\":\"USD 0.01\"}");
+        assertPut("/operation/drain", Map.of("payer", "USD -0.01", "p1", "USD -0.01", "p9999", "USD 0.02"), 200, "{}");
+        payroll.put("p0", "USD 0");
+        assertPut("/operation/wide", payroll, 400, "{\"error\":\"too many legs, at most 10000 are allowed\"}");
+    }
+
+    @Test
+    public void hotAccount() throws IOException, InterruptedException {
+        var dir = Files.createTempDirectory("journal");
+        restart(dir, Set.of("fee"));
+        assertPut("/account/1", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/fee", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/operation/a", Map.of("1", "USD 10"), 200, "{}");
+        IntStream.range(0, 3).parallel().forEach(i -> assertPut("/operation/" + (char) ('b' + i), Map.of("1", "USD -1", "fee", "USD 1"), 200, "{}"));
+        assertGet("/account/fee", 200, "{\"balance\":\"USD 3.00\"}");
+        storage.snapshot();
+        assertPut("/operation/f", Map.of("1", "USD -1", "fee", "USD 1"), 200, "{}");
+        assertPut("/operation/g", Map.of("fee", "USD -2"), 200, "{}");
+        assertPut("/operation/h", Map.of("fee", "USD -5"), 412, "{\"error\":\"insufficient balance\"}");
+        assertPut("/operation/i", Map.of("fee", "GBP 1"), 412, "{\"error\":\"Currencies differ: USD/GBP\"}");
+        assertPut("/operation/j", Map.of("1", "USD -1", "fee", "USD 1"), 200, "{}");
+        restart(dir, Set.of("fee"));
+        assertGet("/account/1", 200, "{\"balance\":\"USD 5.00\"}");
+        assertGet("/account/fee", 200, "{\"balance\":\"USD 3.00\"}");
+        var response = client.send(GET("/account/fee/operations"), HttpResponse.BodyHandlers.ofString()).body();
+        Assertions.assertTrue(response.endsWith(
+                "{\"id\":\"f\",\"sequence\":7,\"amount\":\"USD 1.00\",\"balance\":\"USD 4.00\"},"
+                        + "{\"id\":\"g\",\"sequence\":8,\"amount\":\"USD -2.00\",\"balance\":\"USD 2.00\"},"
+                        + "{\"id\":\"j\",\"sequence\":9,\"amount\":\"USD 1.00\",\"balance\":\"USD 3.00\"}"
+                        + "],\"next\":6}"), response);
+    }
+
+    @Test
+    public void stats() {
+        assertGet("/stats", 200, "{}");
+        assertPut("/account/a", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/b", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/c", Map.of("currency", "EUR"), 200, "{}");
+        assertPut("/operation/1", Map.of("a", "USD 10.50", "c", "EUR 2"), 200, "{}");
+        assertPut("/operation/2", Map.of("a", "USD -3", "b", "USD 3"), 200, "{}");
+        assertPut("/operation/3", Map.of("b", "USD -4"), 412, "{\"error\":\"insufficient balance\"}");
+        assertGet("/stats", 200, "{\"EUR\":{\"accounts\":1,\"total\":\"EUR 2.00\"},\"USD\":{\"accounts\":2,\"total\":\"USD 10.50\"}}");
+        Assertions.assertTrue(storage.verifyAggregates());
+    }
+
+    @Test
+    public void asyncOperations() throws IOException, InterruptedException {
+        tearDown();
+        storage = new Storage.Builder().journal(new FileJournal(Files.createTempDirectory("journal"), 1 << 20, Duration.ofMillis(500))).engine(engine()).build();
+        server = new Server.Builder(storage).maxPending(2).build().run(transport(), 8080, 100, ForkJoinPool.commonPool());
+        assertPut("/account/a", Map.of("currency", "USD"), 200, "{}");
+        assertPut("/account/b", Map.of("currency", "USD"), 200, "{}");
+        var accepted = client.send(PUT_ASYNC("/operation/1", Map.of("a", "USD 5")), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(
+                List.of(202, "{\"id\":\"1\",\"status\":\"pending\"}", "/operation/1", "respond-async"),
+                List.of(accepted.statusCode(), accepted.body(), accepted.headers().firstValue("Location").orElseThrow(), accepted.headers().firstValue("Preference-Applied").orElseThrow())
+        );
+        assertGet("/operation/1", 200, "{\"id\":\"1\",\"status\":\"pending\"}");
+        assertGet("/operation/1?timeout=10000", 200, "{\"id\":\"1\",\"status\":\"done\",\"sequence\":3}");
+        assertResponse(PUT_ASYNC("/operation/1", Map.of("a", "USD 5")), 200, "{}");
+        assertResponse(PUT_ASYNC("/operation/1", Map.of("a", "USD 6")), 409, "{\"error\":\"operation mismatch\"}");
+        client.send(PUT_ASYNC("/operation/2", Map.of("a", "USD -6")), HttpResponse.BodyHandlers.ofString());
+        assertGet("/operation/2?timeout=10000", 200, "{\"id\":\"2\",\"status\":\"failed\",\"code\":412,\"error\":\"insufficient balance\"}");
+        assertResponse(PUT_ASYNC("/operation/2", Map.of("a", "USD -6")), 412, "{\"error\":\"insufficient balance\"}");
+        assertResponse(PUT_ASYNC("/operation/3", Map.of("b", "USD 2")), 202, "{\"id\":\"3\",\"status\":\"pending\"}");
+        assertResponse(PUT_ASYNC("/operation/4", Map.of("b", "USD -2", "a", "USD 2")), 202, "{\"id\":\"4\",\"status\":\"pending\"}");
+        var rejected = client.send(PUT_ASYNC("/operation/5", Map.of("a", "USD 1")), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(
+                List.of(503, "{\"error\":\"too many operations pending, retry later\"}", "1"),
+                List.of(rejected.statusCode(), rejected.body(), rejected.headers().firstValue("Retry-After").orElseThrow())
+        );
+        assertGet("/operation/4?timeout=10000", 200, "{\"id\":\"4\",\"status\":\"done\",\"sequence\":5}");
+        assertGet("/operation/3", 200, "{\"id\":\"3\",\"status\":\"done\",\"sequence\":4}");
+        assertGet("/account/b", 200, "{\"balance\":\"USD 0.00\"}");
+        assertGet("/account/a", 200, "{\"balance\":\"USD 7.00\"}");
+        assertGet("/operation/5", 404, "{\"error\":\"operation not found: 5\"}");
+        assertGet("/operation/1?timeout=x", 400, "{\"error\":\"invalid timeout: x\"}");
+    }
+
+    private void restart(Path journal) throws IOException {
+        restart(journal, Set.of());
+    }
+
+    private void restart(Path journal, Set<String> hotAccounts) throws IOException {
+        tearDown();
+        storage = new Storage.Builder().journal(new FileJournal(journal, 256, Duration.ofMillis(1))).snapshots(new Snapshots(journal)).engine(engine()).hotAccounts(hotAccounts, 4).build();
+        server = new Server.Builder(storage).build().run(transport(), 8080, 100, ForkJoinPool.commonPool());
+    }
+
+    protected Transport transport() {
+        return new SunTransport();
+    }
+
+    protected Engine engine() {
+        return new LockingEngine();
+    }
+
     @BeforeEach
     void setUp() throws IOException {
-        server = new Server(new Storage()).run(8080, 100, ForkJoinPool.commonPool());
+        storage = new Storage.Builder().engine(engine()).build();
+        server = new Server.Builder(storage).build().run(transport(), 8080, 100, ForkJoinPool.commonPool());
     }
 
     @AfterEach
     void tearDown() {
-        server.stop(0);
+        server.stop();
         server = null;
+        storage.close();
+        storage = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package net.swined.revolut;
+
+import net.swined.revolut.storage.Engine;
+import net.swined.revolut.storage.ShardedEngine;
+
+class ShardedServerTest extends ServerTest {
+
+    @Override
+    protected Engine engine() {
+        return new ShardedEngine(4);
+    }
+
+}
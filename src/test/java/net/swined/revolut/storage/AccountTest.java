@@ -0,0 +1,122 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+class AccountTest {
+
+    @Test
+    public void consistentReads() {
+        var account = new Account("a", CurrencyUnit.USD);
+        var amount = new Amount(CurrencyUnit.USD, 3);
+        var sequence = new AtomicLong();
+        var engine = new LockingEngine();
+        var done = new AtomicBoolean();
+        var readers = IntStream.range(0, 4).mapToObj(i -> CompletableFuture.runAsync(() -> {
+            long last = 0;
+            while (!done.get()) {
+                var state = account.getState();
+                Assertions.assertEquals(3 * state.getSequence(), state.getBalance());
+                Assertions.assertTrue(state.getSequence() >= last);
+                Assertions.assertTrue(account.getBalance() >= state.getBalance());
+                last = state.getSequence();
+            }
+        })).toArray(CompletableFuture[]::new);
+        for (int i = 0; i < 1_000_000; i++) {
+            engine.update("op", 0, Map.of(account, amount), sequence::incrementAndGet);
+        }
+        done.set(true);
+        CompletableFuture.allOf(readers).join();
+        Assertions.assertEquals(3_000_000, account.getBalance());
+    }
+
+    @Test
+    public void readsDoNotWaitForCommit() throws Exception {
+        for (var engine : List.of(new LockingEngine(), new ShardedEngine(2))) {
+            var a = new Account("a", CurrencyUnit.USD, 5, 1);
+            var b = new Account("b", CurrencyUnit.USD, 0, 1);
+            var entered = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            var update = CompletableFuture.runAsync(() -> engine.update("op", 0, Map.of(a, new Amount(CurrencyUnit.USD, -2), b, new Amount(CurrencyUnit.USD, 2)), () -> {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 2;
+            }));
+            entered.await();
+            var reads = CompletableFuture.supplyAsync(() -> List.of(a.getState().getBalance(), b.getState().getBalance()));
+            Assertions.assertEquals(List.of(5L, 0L), reads.get(10, TimeUnit.SECONDS));
+            release.countDown();
+            update.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(List.of(3L, 2L), List.of(a.getState().getBalance(), b.getState().getBalance()));
+            engine.close();
+        }
+    }
+
+    @Test
+    public void hotAccount() throws IOException {
+        var fee = new Account("fee", CurrencyUnit.USD, 0, 0, 4);
+        var sequence = new AtomicLong();
+        var engine = new LockingEngine();
+        var debited = new AtomicLong();
+        var done = new AtomicBoolean();
+        var debitor = CompletableFuture.runAsync(() -> {
+            while (!done.get()) {
+                try {
+                    engine.update("debit", 0, Map.of(fee, new Amount(CurrencyUnit.USD, -5)), sequence::incrementAndGet);
+                    debited.addAndGet(5);
+                } catch (ClientError e) {
+                    Assertions.assertTrue(fee.getBalance() >= 0);
+                }
+            }
+        });
+        var payers = IntStream.range(0, 4).mapToObj(i -> CompletableFuture.runAsync(() -> {
+            var payer = new Account("payer" + i, CurrencyUnit.USD, 100_000, 0);
+            for (int j = 0; j < 100_000; j++) {
+                engine.update("fee", 0, Map.of(payer, new Amount(CurrencyUnit.USD, -1), fee, new Amount(CurrencyUnit.USD, 1)), sequence::incrementAndGet);
+            }
+        })).toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(payers).join();
+        done.set(true);
+        debitor.join();
+        Assertions.assertEquals(400_000 - debited.get(), fee.getBalance());
+        var last = new long[2];
+        fee.getLedger().read(0, Integer.MAX_VALUE, (id, entrySequence, time, amount, balance) -> {
+            Assertions.assertTrue(entrySequence > last[0]);
+            Assertions.assertEquals(last[1] + amount, balance);
+            Assertions.assertTrue(balance >= 0);
+            last[0] = entrySequence;
+            last[1] = balance;
+        });
+        Assertions.assertEquals(fee.getBalance(), last[1]);
+    }
+
+    @Test
+    public void changedIsSharedPerVersion() {
+        var account = new Account("a", CurrencyUnit.USD, 0, 0);
+        var changed = account.changed();
+        Assertions.assertSame(changed, account.changed());
+        changed.copy().complete(null);
+        Assertions.assertFalse(changed.isDone());
+        account.signal();
+        Assertions.assertTrue(changed.isDone());
+        Assertions.assertNotSame(changed, account.changed());
+        Assertions.assertFalse(account.changed().isDone());
+    }
+
+}
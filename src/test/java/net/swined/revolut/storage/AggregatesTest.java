@@ -0,0 +1,130 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+class AggregatesTest {
+
+    private static List<String> totals(Storage storage) {
+        return storage.getAggregates().totals().stream()
+                .map(total -> total.getAccounts() + " " + new Amount(total.getCurrency(), total.getBalance()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void totals() {
+        try (var storage = new Storage.Builder().hotAccounts(Set.of("fee"), 4).build()) {
+            storage.create("a", CurrencyUnit.USD);
+            storage.create("b", CurrencyUnit.USD);
+            storage.create("a", CurrencyUnit.USD);
+            storage.create("fee", CurrencyUnit.USD);
+            storage.create("c", CurrencyUnit.GBP);
+            Assertions.assertThrows(ClientError.class, () -> storage.create("c", CurrencyUnit.USD));
+            storage.update("1", Diff.of(Map.of("a", "USD 10", "c", "GBP 3")));
+            storage.update("2", Diff.of(Map.of("a", "USD -4", "b", "USD 3", "fee", "USD 1")));
+            storage.update("2", Diff.of(Map.of("a", "USD -4", "b", "USD 3", "fee", "USD 1")));
+            Assertions.assertThrows(ClientError.class, () -> storage.update("3", Diff.of(Map.of("b", "USD -5", "a", "USD 5"))));
+            Assertions.assertThrows(ClientError.class, () -> storage.update("4", Diff.of(Map.of("b", "USD 1", "missing", "USD 1"))));
+            Assertions.assertEquals(List.of("1 GBP 3.00", "3 USD 10.00"), totals(storage));
+            Assertions.assertTrue(storage.verifyAggregates());
+            Assertions.assertEquals(1, storage.getAggregates().verified());
+        }
+    }
+
+    @Test
+    public void drift() {
+        try (var storage = new Storage.Builder().build()) {
+            storage.create("a", CurrencyUnit.EUR);
+            storage.update("1", Diff.of(Map.of("a", "EUR 1")));
+            storage.getAggregates().applied(Map.of(storage.get("a"), new Amount(CurrencyUnit.EUR, 1)));
+            Assertions.assertFalse(storage.verifyAggregates());
+            Assertions.assertEquals(1, storage.getAggregates().drifted());
+        }
+    }
+
+    @Test
+    public void driftAfterFailedUpdates() {
+        try (var storage = new Storage.Builder().build()) {
+            storage.create("a", CurrencyUnit.EUR);
+            storage.update("1", Diff.of(Map.of("a", "EUR 1")));
+            for (int i = 0; i < 100; i++) {
+                var id = "fail" + i;
+                Assertions.assertThrows(ClientError.class, () -> storage.update(id, Diff.of(Map.of("a", "EUR -5"))));
+            }
+            Assertions.assertTrue(storage.verifyAggregates());
+            storage.getAggregates().applied(Map.of(storage.get("a"), new Amount(CurrencyUnit.EUR, 1)));
+            Assertions.assertFalse(storage.verifyAggregates());
+        }
+    }
+
+    @Test
+    public void concurrentVerification() {
+        for (var engine : List.of(new LockingEngine(), new ShardedEngine(4))) {
+            try (var storage = new Storage.Builder().engine(engine).hotAccounts(Set.of("a0"), 4).build()) {
+                for (int i = 0; i < 50; i++) {
+                    storage.create("a" + i, CurrencyUnit.USD);
+                    storage.update("init" + i, Diff.of(Map.of("a" + i, "USD 100")));
+                }
+                var done = new AtomicBoolean();
+                var verifier = CompletableFuture.runAsync(() -> {
+                    while (!done.get()) {
+                        Assertions.assertTrue(storage.verifyAggregates());
+                    }
+                });
+                IntStream.range(0, 4).parallel().forEach(thread -> {
+                    var random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 5_000; i++) {
+                        var from = random.nextInt(50);
+                        var to = (from + 1 + random.nextInt(49)) % 50;
+                        try {
+                            storage.update(thread + "-" + i, Diff.of(Map.of("a" + from, "USD -1.50", "a" + to, "USD 1.25")));
+                        } catch (ClientError e) {
+                            Assertions.assertEquals("insufficient balance", e.getMessage());
+                        }
+                        if (i % 100 == 0) {
+                            storage.create(thread + "-" + i, CurrencyUnit.GBP);
+                        }
+                    }
+                });
+                done.set(true);
+                verifier.join();
+                Assertions.assertTrue(storage.verifyAggregates());
+                var usd = storage.getAccounts().stream().filter(account -> account.getCurrency().equals(CurrencyUnit.USD)).mapToLong(Account::getBalance).sum();
+                Assertions.assertEquals(List.of("200 GBP 0.00", "50 " + new Amount(CurrencyUnit.USD, usd)), totals(storage));
+                Assertions.assertEquals(0, storage.getAggregates().drifted());
+            }
+        }
+    }
+
+    @Test
+    public void recovery() throws IOException {
+        var journal = Files.createTempDirectory("journal");
+        try (var storage = new Storage.Builder().journal(new FileJournal(journal, 256, Duration.ofMillis(1))).snapshots(new Snapshots(journal)).build()) {
+            storage.create("a", CurrencyUnit.USD);
+            storage.create("b", CurrencyUnit.GBP);
+            storage.update("1", Diff.of(Map.of("a", "USD 5", "b", "GBP 1")));
+            storage.snapshot();
+            storage.create("c", CurrencyUnit.USD);
+            storage.update("2", Diff.of(Map.of("a", "USD -2", "c", "USD 1")));
+        }
+        try (var storage = new Storage.Builder().journal(new FileJournal(journal, 256, Duration.ofMillis(1))).snapshots(new Snapshots(journal)).build()) {
+            Assertions.assertEquals(List.of("1 GBP 1.00", "2 USD 4.00"), totals(storage));
+            Assertions.assertTrue(storage.verifyAggregates());
+        }
+    }
+
+}
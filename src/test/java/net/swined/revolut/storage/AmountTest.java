@@ -0,0 +1,35 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+class AmountTest {
+
+    @Test
+    public void parse() {
+        for (var value : List.of("USD 1", "USD-1", "USD 1.5", "USD .05", "USD 1.", "USD +3", "USD 1.000", "JPY 12", "USD   7.25", "GBP -0.01", "USD 92233720368547758.07", "BHD 1.234")) {
+            var money = Money.parse(value);
+            Assertions.assertEquals(new Amount(money.getCurrencyUnit(), money.getAmountMinorLong()), Amount.parse(value), value);
+        }
+    }
+
+    @Test
+    public void format() {
+        var random = new Random(42);
+        for (var currency : List.of(CurrencyUnit.USD, CurrencyUnit.JPY, CurrencyUnit.of("BHD"))) {
+            for (var minor : List.of(0L, 1L, -1L, 10L, -999L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+                Assertions.assertEquals(Money.ofMinor(currency, minor).toString(), new Amount(currency, minor).toString());
+            }
+            for (int i = 0; i < 1000; i++) {
+                var minor = random.nextLong() >> random.nextInt(64);
+                Assertions.assertEquals(Money.ofMinor(currency, minor).toString(), new Amount(currency, minor).toString());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class ChangesTest {
+
+    private static Change change(long sequence) {
+        return new Change(sequence, "op" + sequence, 0, null, null);
+    }
+
+    @Test
+    public void publishOutOfOrder() {
+        var changes = new Changes(4, 0);
+        var cursor = changes.cursor(0);
+        changes.publish(change(2));
+        Assertions.assertNull(cursor.poll());
+        changes.publish(change(1));
+        Assertions.assertEquals(1, cursor.poll().getSequence());
+        Assertions.assertEquals(2, cursor.poll().getSequence());
+        Assertions.assertNull(cursor.await(1, TimeUnit.MILLISECONDS));
+        changes.publish(change(3));
+        Assertions.assertEquals(3, cursor.await(1, TimeUnit.SECONDS).getSequence());
+    }
+
+    @Test
+    public void slowConsumer() {
+        var changes = new Changes(4, 0);
+        var slow = changes.cursor(0);
+        var fast = changes.cursor(2);
+        for (int sequence = 1; sequence <= 5; sequence++) {
+            changes.publish(change(sequence));
+        }
+        changes.publish(change(1));
+        Assertions.assertEquals(3, fast.poll().getSequence());
+        var error = Assertions.assertThrows(ClientError.class, slow::poll);
+        Assertions.assertEquals(410, error.getCode());
+        Assertions.assertEquals(1, changes.getLagged());
+        Assertions.assertThrows(ClientError.class, () -> changes.cursor(-1));
+        changes.close();
+        Assertions.assertTrue(fast.isClosed());
+        Assertions.assertNull(fast.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void overwrittenCursor() {
+        var changes = new Changes(4, 0);
+        for (int sequence = 1; sequence <= 5; sequence++) {
+            changes.publish(change(sequence));
+        }
+        var error = Assertions.assertThrows(ClientError.class, () -> changes.cursor(0));
+        Assertions.assertEquals(410, error.getCode());
+        var cursor = changes.cursor(1);
+        Assertions.assertEquals(1, cursor.getSequence());
+        Assertions.assertEquals(2, cursor.poll().getSequence());
+        Assertions.assertEquals(2, cursor.getSequence());
+        Assertions.assertNotNull(changes.cursor(5));
+    }
+
+    @Test
+    public void awaitWakesOnPublish() throws Exception {
+        var changes = new Changes(4, 0);
+        var cursor = changes.cursor(0);
+        var awaited = CompletableFuture.supplyAsync(() -> cursor.await(1, TimeUnit.MINUTES));
+        Thread.sleep(50);
+        changes.publish(change(1));
+        Assertions.assertEquals(1, awaited.get(10, TimeUnit.SECONDS).getSequence());
+        var closed = CompletableFuture.supplyAsync(() -> cursor.await(1, TimeUnit.MINUTES));
+        Thread.sleep(50);
+        changes.close();
+        Assertions.assertNull(closed.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void publishedDespiteFailedSync() {
+        var storage = new Storage.Builder().journal(new MemoryJournal() {
+            @Override
+            public void sync(long sequence) {
+                throw new IllegalStateException("disk failure");
+            }
+        }).build();
+        var cursor = storage.getChanges().cursor(0);
+        Assertions.assertThrows(IllegalStateException.class, () -> storage.create("a", CurrencyUnit.USD));
+        Assertions.assertThrows(IllegalStateException.class, () -> storage.update("1", Diff.of(Map.of("a", "USD 1"))));
+        Assertions.assertEquals("a", cursor.poll().getId());
+        Assertions.assertEquals("1", cursor.poll().getId());
+        storage.close();
+    }
+
+}
@@ -0,0 +1,142 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+class CompactAccountStoreTest {
+
+    private static Storage storage(Journal journal, Snapshots snapshots, Engine engine) {
+        return new Storage.Builder().journal(journal).snapshots(snapshots).engine(engine).accounts(new CompactAccountStore(16)).build();
+    }
+
+    @Test
+    public void growth() {
+        var store = new CompactAccountStore(16);
+        for (int i = 0; i < 200_000; i++) {
+            var id = "account-" + i;
+            var currency = i % 2 == 0 ? CurrencyUnit.USD : CurrencyUnit.GBP;
+            var account = store.computeIfAbsent(id, k -> new Account(k, currency));
+            Assertions.assertEquals(id, account.getId());
+        }
+        Assertions.assertEquals(200_000, store.size());
+        for (int i = 0; i < 200_000; i++) {
+            var account = store.get("account-" + i);
+            Assertions.assertEquals(new Account("account-" + i, i % 2 == 0 ? CurrencyUnit.USD : CurrencyUnit.GBP), account);
+        }
+        Assertions.assertNull(store.get("account-200000"));
+        Assertions.assertNull(store.get("x".repeat(70_000)));
+        var ids = new HashSet<String>();
+        store.values().forEach(account -> ids.add(account.getId()));
+        Assertions.assertEquals(200_000, ids.size());
+        Assertions.assertEquals("account-0", store.computeIfAbsent("account-0", k -> Assertions.fail("created twice")).getId());
+        store.clear();
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertNull(store.get("account-1"));
+    }
+
+    @Test
+    public void ids() {
+        var store = new CompactAccountStore(16);
+        for (var id : List.of("", "\u043a\u043b\u044e\u0447", "a", "b".repeat(0xffff))) {
+            store.computeIfAbsent(id, k -> new Account(k, CurrencyUnit.EUR));
+        }
+        for (var id : List.of("", "\u043a\u043b\u044e\u0447", "a", "b".repeat(0xffff))) {
+            Assertions.assertEquals(id, store.get(id).getId());
+        }
+        var error = Assertions.assertThrows(ClientError.class, () -> store.computeIfAbsent("b".repeat(0x10000), k -> new Account(k, CurrencyUnit.EUR)));
+        Assertions.assertEquals("account id is longer than 65535 bytes", error.getMessage());
+    }
+
+    @Test
+    public void put() {
+        var store = new CompactAccountStore(16);
+        store.put(new Account("a", CurrencyUnit.USD, 5, 7));
+        Assertions.assertEquals(List.of(5L, 7L), List.of(store.get("a").getState().getBalance(), store.get("a").getState().getSequence()));
+        store.put(new Account("a", CurrencyUnit.GBP, 3, 9));
+        var account = store.get("a");
+        Assertions.assertEquals(List.of(CurrencyUnit.GBP, 3L, 9L), List.of(account.getCurrency(), account.getState().getBalance(), account.getState().getSequence()));
+        Assertions.assertEquals(0, account.getLedger().size());
+        Assertions.assertEquals(3, account.getBalance(0));
+    }
+
+    @Test
+    public void transfers() {
+        for (var engine : List.of(new LockingEngine(), new ShardedEngine(4))) {
+            try (var storage = storage(new MemoryJournal(), null, engine)) {
+                for (int i = 0; i < 100; i++) {
+                    storage.create("a" + i, CurrencyUnit.USD);
+                    storage.update("init" + i, Diff.of(Map.of("a" + i, "USD 100")));
+                }
+                var done = new AtomicBoolean();
+                var reader = CompletableFuture.runAsync(() -> {
+                    while (!done.get()) {
+                        for (var account : storage.getAccounts()) {
+                            Assertions.assertTrue(account.getState().getBalance() >= 0);
+                        }
+                    }
+                });
+                IntStream.range(0, 4).parallel().forEach(thread -> {
+                    var random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 10_000; i++) {
+                        var from = random.nextInt(100);
+                        var to = (from + 1 + random.nextInt(99)) % 100;
+                        try {
+                            storage.update(thread + "-" + i, Diff.of(Map.of("a" + from, "USD -1.37", "a" + to, "USD 1.37")));
+                        } catch (ClientError e) {
+                            Assertions.assertEquals("insufficient balance", e.getMessage());
+                        }
+                    }
+                });
+                done.set(true);
+                reader.join();
+                Assertions.assertEquals(1_000_000, storage.getAccounts().stream().mapToLong(Account::getBalance).sum());
+                Assertions.assertFalse(storage.keepsHistory());
+            }
+        }
+    }
+
+    @Test
+    public void changed() {
+        try (var storage = storage(new MemoryJournal(), null, new LockingEngine())) {
+            storage.create("a", CurrencyUnit.USD);
+            var changed = storage.get("a").changed();
+            Assertions.assertSame(changed, storage.get("a").changed());
+            Assertions.assertFalse(changed.isDone());
+            storage.update("1", Diff.of(Map.of("a", "USD 1")));
+            Assertions.assertTrue(changed.isDone());
+            Assertions.assertEquals(2, storage.get("a").getState().getSequence());
+        }
+    }
+
+    @Test
+    public void recovery() throws IOException {
+        var journal = Files.createTempDirectory("journal");
+        try (var storage = storage(new FileJournal(journal, 256, Duration.ofMillis(1)), new Snapshots(journal), new LockingEngine())) {
+            storage.create("a", CurrencyUnit.USD);
+            storage.create("b", CurrencyUnit.GBP);
+            storage.update("1", Diff.of(Map.of("a", "USD 5", "b", "GBP 1")));
+            storage.snapshot();
+            storage.update("2", Diff.of(Map.of("a", "USD -2")));
+        }
+        try (var storage = storage(new FileJournal(journal, 256, Duration.ofMillis(1)), new Snapshots(journal), new LockingEngine())) {
+            Assertions.assertEquals(List.of(300L, 4L), List.of(storage.get("a").getBalance(), storage.get("a").getState().getSequence()));
+            Assertions.assertEquals(List.of(100L, 3L), List.of(storage.get("b").getBalance(), storage.get("b").getState().getSequence()));
+            storage.update("2", Diff.of(Map.of("a", "USD -2")));
+            Assertions.assertEquals(300L, storage.get("a").getBalance());
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package net.swined.revolut.storage;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+class LedgerTest {
+
+    @Test
+    public void pages() throws IOException {
+        var ledger = new Ledger();
+        for (int i = 0; i < 1000; i++) {
+            ledger.append("op" + i, i + 1, 0, i, i * 2);
+        }
+        Assertions.assertEquals(1000, ledger.size());
+        for (var page : new int[]{1, 7, 256, 1000}) {
+            var ids = new ArrayList<String>();
+            for (int after = 0; after < ledger.size(); ) {
+                var from = after;
+                after += ledger.read(after, page, (id, sequence, time, amount, balance) -> {
+                    var i = from + ids.size() % page;
+                    Assertions.assertEquals(i + 1, sequence);
+                    Assertions.assertEquals(i, amount);
+                    Assertions.assertEquals(i * 2, balance);
+                    ids.add(id);
+                });
+            }
+            Assertions.assertEquals(1000, ids.size());
+            Assertions.assertEquals("op999", ids.get(999));
+        }
+        Assertions.assertEquals(0, ledger.read(1000, 10, (id, sequence, time, amount, balance) -> Assertions.fail("unexpected entry")));
+        Assertions.assertEquals(10, ledger.read(0, 100, 10, (id, sequence, time, amount, balance) -> {
+        }));
+    }
+
+    @Test
+    public void concurrentReads() {
+        var ledger = new Ledger();
+        var reader = CompletableFuture.runAsync(() -> {
+            while (ledger.size() < 1000) {
+                try {
+                    var size = ledger.size();
+                    var read = ledger.read(0, Integer.MAX_VALUE, (id, sequence, time, amount, balance) -> Assertions.assertEquals(sequence * 2, balance));
+                    Assertions.assertTrue(read >= size);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        for (int i = 1; i <= 1000; i++) {
+            ledger.append("op" + i, i, 0, 2, i * 2);
+        }
+        reader.join();
+    }
+
+    @Test
+    public void balanceAt() {
+        var ledger = new Ledger();
+        Assertions.assertEquals(42, ledger.balanceAt(100, 42));
+        for (int i = 0; i < 1000; i++) {
+            ledger.append("op" + i, i + 1, 100 + i / 2 * 10, 10, 1010 + i * 10);
+        }
+        ledger.append("late", 1001, 50, 10, 11010);
+        Assertions.assertEquals(1000, ledger.balanceAt(99, 0));
+        Assertions.assertEquals(1020, ledger.balanceAt(100, 0));
+        Assertions.assertEquals(1020, ledger.balanceAt(109, 0));
+        Assertions.assertEquals(1040, ledger.balanceAt(110, 0));
+        Assertions.assertEquals(10980, ledger.balanceAt(5080, 0));
+        Assertions.assertEquals(11010, ledger.balanceAt(5090, 0));
+        Assertions.assertEquals(11010, ledger.balanceAt(Long.MAX_VALUE, 0));
+    }
+
+}
@@ -0,0 +1,74 @@
+package net.swined.revolut.storage;
+
+import net.swined.revolut.ClientError;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class OperationsTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private Operation done(String id) {
+        return new Operation(id, Diff.of(Map.of(id, "USD 1")).getFingerprint(), 1);
+    }
+
+    @Test
+    public void deduplicate() {
+        var operations = new Operations(Duration.ofMillis(100), 10, Long.MAX_VALUE, clock::get);
+        var first = operations.register(new Operation("1", Diff.of(Map.of("a", "USD 1"))));
+        Assertions.assertSame(first, operations.register(new Operation("1", Diff.of(Map.of("a", "USD 1")))));
+        Assertions.assertThrows(ClientError.class, () -> operations.register(new Operation("1", Diff.of(Map.of("a", "USD 2")))));
+        Assertions.assertEquals(1, operations.hits());
+        Assertions.assertEquals(1, operations.misses());
+        Assertions.assertEquals(0.5, operations.hitRate());
+    }
+
+    @Test
+    public void expire() {
+        var operations = new Operations(Duration.ofMillis(100), 10, Long.MAX_VALUE, clock::get);
+        operations.register(done("1"));
+        clock.set(50);
+        operations.register(done("2"));
+        clock.set(105);
+        operations.register(done("3"));
+        Assertions.assertEquals(3, operations.size());
+        clock.set(115);
+        operations.register(done("4"));
+        Assertions.assertEquals(3, operations.size());
+        Assertions.assertEquals(1, operations.expired());
+        clock.set(1000);
+        operations.register(done("5"));
+        Assertions.assertEquals(1, operations.size());
+        Assertions.assertEquals(4, operations.expired());
+    }
+
+    @Test
+    public void keepUnfinished() {
+        var operations = new Operations(Duration.ofMillis(100), 10, Long.MAX_VALUE, clock::get);
+        operations.register(new Operation("1", Diff.of(Map.of("a", "USD 1"))));
+        clock.set(1000);
+        operations.register(done("2"));
+        Assertions.assertEquals(2, operations.size());
+    }
+
+    @Test
+    public void evict() {
+        var operations = new Operations(Duration.ofMillis(100), 10, 2, clock::get);
+        operations.register(done("1"));
+        clock.set(20);
+        operations.register(done("2"));
+        operations.register(done("3"));
+        Assertions.assertEquals(2, operations.size());
+        Assertions.assertEquals(1, operations.evicted());
+        operations.register(done("4"));
+        Assertions.assertEquals(2, operations.size());
+        Assertions.assertEquals(2, operations.evicted());
+        operations.register(done("1"));
+        Assertions.assertEquals(5, operations.misses());
+    }
+
+}
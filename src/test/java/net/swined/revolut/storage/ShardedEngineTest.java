@@ -0,0 +1,50 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class ShardedEngineTest {
+
+    @Test
+    public void closeFailsQueuedUpdates() throws Exception {
+        var engine = new ShardedEngine(2);
+        var a = new Account("a", CurrencyUnit.USD, 0, 0);
+        var b = new Account("b", CurrencyUnit.USD, 0, 0);
+        var entered = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var running = CompletableFuture.supplyAsync(() -> engine.update("1", 0, Map.of(a, new Amount(CurrencyUnit.USD, 1)), () -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 1;
+        }));
+        entered.await();
+        var single = CompletableFuture.supplyAsync(() -> engine.update("2", 0, Map.of(a, new Amount(CurrencyUnit.USD, 1)), () -> 2));
+        var wide = CompletableFuture.supplyAsync(() -> engine.update("3", 0, Map.of(a, new Amount(CurrencyUnit.USD, 1), b, new Amount(CurrencyUnit.USD, 1)), () -> 3));
+        Thread.sleep(100);
+        var closed = CompletableFuture.runAsync(engine::close);
+        for (var queued : List.of(single, wide)) {
+            var e = Assertions.assertThrows(ExecutionException.class, () -> queued.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals("engine is closed", e.getCause().getMessage());
+        }
+        release.countDown();
+        Assertions.assertEquals(1, (long) running.get(10, TimeUnit.SECONDS));
+        closed.get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, a.getBalance());
+        Assertions.assertEquals(0, b.getBalance());
+        var late = Assertions.assertThrows(IllegalStateException.class, () -> engine.update("4", 0, Map.of(b, new Amount(CurrencyUnit.USD, 1)), () -> 4));
+        Assertions.assertEquals("engine is closed", late.getMessage());
+    }
+
+}
@@ -0,0 +1,36 @@
+package net.swined.revolut.storage;
+
+import org.joda.money.CurrencyUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+class SubmissionsTest {
+
+    @Test
+    public void rejectedByExecutor() {
+        var storage = new Storage.Builder().build();
+        storage.create("a", CurrencyUnit.USD);
+        var submissions = new Submissions(storage, 10);
+        var operation = submissions.submit("1", Diff.of(Map.of("a", "USD 1")), task -> {
+            throw new RejectedExecutionException("shutting down");
+        });
+        Assertions.assertTrue(operation.isSettled());
+        Assertions.assertTrue(operation.settled().isDone());
+        Assertions.assertEquals(List.of(503, "operation could not be scheduled"), List.of(operation.getCode(), operation.getError()));
+        Assertions.assertEquals(0, submissions.pending());
+        Assertions.assertEquals(0, storage.get("a").getBalance());
+        var retried = submissions.submit("1", Diff.of(Map.of("a", "USD 1")), Runnable::run);
+        Assertions.assertNotSame(operation, retried);
+        Assertions.assertTrue(retried.isSettled());
+        Assertions.assertNull(retried.getError());
+        Assertions.assertTrue(retried.getSequence() > 0);
+        Assertions.assertEquals(100, storage.get("a").getBalance());
+        Assertions.assertSame(retried, storage.getOperation("1"));
+        storage.close();
+    }
+
+}